@@ -1,7 +1,8 @@
 package org.aniser.photos;
 
-import java.io.File;
 import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -21,11 +22,39 @@ public class Application {
 
     private static final boolean BY_PASS_ENABLED = true;
 
-    private final static PhotoCompare photoCompare = new PhotoCompare();
+    private static final String CATALOG_PROPERTY = "snap.catalog";
+    private static final String CONCURRENCY_PROPERTY = "snap.concurrency";
+    private static final String CHECKPOINT_PROPERTY = "snap.checkpoint";
+    private static final String FULL_COVERAGE_PROPERTY = "snap.full";
+    private static final String OPERATION_PROPERTY = "snap.operation";
+    private static final String THRESHOLD_PROPERTY = "snap.threshold";
+    private static final String ACTION_PROPERTY = "snap.action";
+    private static final String JOURNAL_PROPERTY = "snap.journal";
+    private static final String ROLLBACK_PROPERTY = "snap.rollback";
+    private static final String METRICS_PROPERTY = "snap.metrics";
+    private static final String MEMORY_ENTRIES_PROPERTY = "snap.memory.entries";
+    private static final String WATCH_PROPERTY = "snap.watch";
+    private static final String DEBOUNCE_PROPERTY = "snap.debounce";
+    private static final String REPORT_PROPERTY = "snap.report";
+    private static final String VERIFY_PROPERTY = "snap.verify";
+    private static final String IO_SSD_PROPERTY = "snap.io.ssd";
+    private static final String IO_HDD_PROPERTY = "snap.io.hdd";
+    private static final String ARCHIVE_PROPERTY = "snap.archive";
+    private static final String ARCHIVE_BLOOM_PROPERTY = "snap.archive.bloom";
 
     public static void main(String[] args) {
+        if (args.length > 0 && Cli.isCommand(args[0])) {
+            // headless, neither a Spring context nor any prompt
+            System.exit(Cli.run(args));
+        }
+
         SpringApplication.run(Application.class, args);
 
+        if (System.getProperty(ROLLBACK_PROPERTY) != null) {
+            DeletionPlanner.rollback(Path.of(System.getProperty(ROLLBACK_PROPERTY)));
+            return;
+        }
+
         if (args.length < 2) {
             throw new IllegalStateException("Too few arguments!");
         }
@@ -37,7 +66,22 @@ public class Application {
                 .collect(Collectors.toList());
 
 
-        PhotoCompare.OPERATIONS operation = PhotoCompare.OPERATIONS.DUPLICATE;
+        PhotoCompare.OPERATIONS operation = operation();
+
+        // created once the headless commands are ruled out, they build instances of their own
+        PhotoCompare photoCompare = new PhotoCompare();
+        DigestCatalog digestCatalog = configure(photoCompare);
+        Runtime.getRuntime().addShutdownHook(new Thread(digestCatalog::close));
+
+        if (System.getProperty(WATCH_PROPERTY) != null) {
+            watch(photoCompare, argumentList);
+            return;
+        }
+
+        if (System.getProperty(ARCHIVE_PROPERTY) != null) {
+            archive(photoCompare, argumentList.get(0), Path.of(System.getProperty(ARCHIVE_PROPERTY)));
+            return;
+        }
 
         do {
             List<Path> paths = argumentList;
@@ -45,7 +89,7 @@ public class Application {
 
             log.info("Original path is '" + originalPath + "', other paths to be processed with de-" + operation + " operation from is " + Arrays.toString(paths.toArray()) + ".");
             if (waitForYes()) {
-                run(photoCompare, operation, originalPath, paths, Strings.EMPTY, path -> true);
+                run(photoCompare, operation, originalPath, paths, Strings.EMPTY, path -> true, action().orElse(defaultAction(operation)));
             }
 
             log.info("Run again? Previous arguments were \"" + originalPath.toAbsolutePath() + "\" " +
@@ -54,6 +98,51 @@ public class Application {
         } while (waitForYes() && resetArguments(argumentList));
     }
 
+    static PhotoCompare.OPERATIONS operation() {
+        return PhotoCompare.OPERATIONS.valueOf(System.getProperty(OPERATION_PROPERTY, PhotoCompare.OPERATIONS.DUPLICATE.name()));
+    }
+
+    private static DeletionPlanner.Action defaultAction(PhotoCompare.OPERATIONS operation) {
+        // copies sharing the image data only differ from their originals in metadata the journal can't restore, they are removed on request only
+        return operation == PhotoCompare.OPERATIONS.PAYLOAD_DUPLICATE ? null : DeletionPlanner.Action.DELETE;
+    }
+
+    static Optional<DeletionPlanner.Action> action() {
+        return Optional.ofNullable(System.getProperty(ACTION_PROPERTY)).map(DeletionPlanner.Action::valueOf);
+    }
+
+    /**
+     * Configures the comparison from the {@code snap.*} properties, the returned digest catalog is to be closed by the caller.
+     */
+    static DigestCatalog configure(PhotoCompare photoCompare) {
+        Path catalogPath = Path.of(System.getProperty(CATALOG_PROPERTY, Path.of(System.getProperty("user.home"), ".snap.organis.io", "digests.catalog").toString()));
+        DigestCatalog digestCatalog = DigestCatalog.open(catalogPath);
+        photoCompare.setContentHasher(digestCatalog);
+        photoCompare.setConcurrency(Integer.getInteger(CONCURRENCY_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        photoCompare.setCatalogEntriesInMemory(Integer.getInteger(MEMORY_ENTRIES_PROPERTY, Integer.MAX_VALUE));
+        Optional.ofNullable(System.getProperty(CHECKPOINT_PROPERTY)).map(Path::of).ifPresent(photoCompare::setCheckpointPath);
+        photoCompare.setNearDuplicateThreshold(Integer.getInteger(THRESHOLD_PROPERTY, PerceptualHash.DEFAULT_THRESHOLD));
+        photoCompare.setFullCoverage(Boolean.getBoolean(FULL_COVERAGE_PROPERTY) || System.getProperty(CHECKPOINT_PROPERTY) != null);
+        photoCompare.setVerifyCollisions(Boolean.getBoolean(VERIFY_PROPERTY));
+        // an SSD serves many reads at once, a rotational disk seeks between any two of them
+        photoCompare.setIoScheduler(new IoScheduler(Integer.getInteger(IO_SSD_PROPERTY, Math.max(8, Runtime.getRuntime().availableProcessors() * 2)), Integer.getInteger(IO_HDD_PROPERTY, 2)));
+        return digestCatalog;
+    }
+
+    static void watch(PhotoCompare photoCompare, List<Path> paths) {
+        InboxWatcher.Policy policy = InboxWatcher.Policy.valueOf(System.getProperty(WATCH_PROPERTY, InboxWatcher.Policy.REPORT.name()));
+        List<Path> inboxes = new ArrayList<>(paths);
+        Path originalPath = inboxes.remove(0);
+        try (InboxWatcher watcher = new InboxWatcher(photoCompare, originalPath, inboxes, policy, journalPath(), Long.getLong(DEBOUNCE_PROPERTY, 2000))) {
+            watcher.run();
+        }
+    }
+
+    static void archive(PhotoCompare photoCompare, Path originalPath, Path digestPath) {
+        photoCompare.exportArchiveDigest(originalPath, digestPath, Integer.getInteger(ARCHIVE_BLOOM_PROPERTY, ArchiveDigest.DEFAULT_BLOOM_BITS_PER_ENTRY));
+        log.info("Pass '" + digestPath.toAbsolutePath() + "' instead of the original path '" + originalPath.toAbsolutePath() + "' while it isn't mounted.");
+    }
+
     private static boolean resetArguments(List<Path> paths) {
         paths.clear();
         log.info("Please reset the arguments, for backslash use escape character '\\\\'.\nFill in the path one by one, starting with the path for originals.\nFinish with an EMPTY string.");
@@ -96,47 +185,73 @@ public class Application {
         return doOtherwise.get();
     }
 
-    private static void run(PhotoCompare photoCompare, PhotoCompare.OPERATIONS operation, Path originalPath, List<Path> otherPaths, String message, Predicate<Path> predicate) {
-        List<Path> paths = photoCompare.filterDirectoryBWithFunction(originalPath, otherPaths, operation);
+    /**
+     * Without an action the matches are only listed or reported.
+     */
+    static void run(PhotoCompare photoCompare, PhotoCompare.OPERATIONS operation, Path originalPath, List<Path> otherPaths, String message, Predicate<Path> predicate, DeletionPlanner.Action action) {
+        // the summary covers this run only, not the previous ones of the same session
+        photoCompare.setMetrics(new DedupMetrics());
+        Optional<Path> reportPath = Optional.ofNullable(System.getProperty(REPORT_PROPERTY)).map(Path::of);
+        List<Match> matches;
+        try (ReportWriter reportWriter = reportPath.map(ReportWriter::new).orElse(null)) {
+            photoCompare.setReportWriter(reportWriter);
+            matches = photoCompare.matchDirectoryBWithFunction(originalPath, otherPaths, operation);
+        } finally {
+            photoCompare.setReportWriter(null);
+        }
 
-        List<Path> collectEntries = paths.stream().sorted(Comparator.comparing(Path::toAbsolutePath).reversed())
-                .filter(path -> predicate.test(path))
+        List<Match> collectEntries = matches.stream().sorted(Comparator.comparing((Match match) -> match.getPath().toAbsolutePath()).reversed())
+                .filter(match -> predicate.test(match.getPath()))
                 .collect(Collectors.toCollection(ArrayList::new));
 
-        log.info("List of " + operation.name() + (Strings.isEmpty(message) ? "" : " " + message) + " (" + collectEntries.size() + " of " + paths.size() + " unfiltered entries):");
-        collectEntries.stream().limit(50000).forEach(path -> {
-            log.info("" + path.toAbsolutePath());
-        });
-        log.info(" ... ");
-        if (collectEntries.size() > 0) {
-            log.info("DELETE " + collectEntries.size() + " files from " + Arrays.toString(otherPaths.toArray()) + "?");
-
-            log.warn("Files will be DELETED after passing this point.");
-            if (Application.waitForYes(BY_PASS_ENABLED)) {
-                performCollectionDeletion(originalPath, otherPaths, collectEntries);
+        log.info("List of " + operation.name() + (Strings.isEmpty(message) ? "" : " " + message) + " (" + collectEntries.size() + " of " + matches.size() + " unfiltered entries):");
+        if (reportPath.isPresent()) {
+            log.info("Every group was written to the report '" + reportPath.get().toAbsolutePath() + "'.");
+        } else {
+            collectEntries.stream().limit(50000).forEach(match -> {
+                log.info("" + match.getPath().toAbsolutePath());
+            });
+            log.info(" ... ");
+        }
+        if (action == null) {
+            log.info("No action given, " + collectEntries.size() + " files were only listed" + (operation == PhotoCompare.OPERATIONS.PAYLOAD_DUPLICATE ? ", pass -D" + ACTION_PROPERTY + " to remove files sharing the image data." : "."));
+        } else if (operation == PhotoCompare.OPERATIONS.NEAR_DUPLICATE) {
+            log.info("Near duplicates differ in content from their originals, they are only reported and never DELETED.");
+        } else if (collectEntries.size() > 0) {
+            log.info(action + " " + collectEntries.size() + " files from " + Arrays.toString(otherPaths.toArray()) + "?");
+
+            log.warn("Files will be " + action + " after passing this point.");
+            if (action != DeletionPlanner.Action.DELETE && ArchiveDigest.isArchiveDigest(originalPath)) {
+                log.warn("Originals of an archive digest aren't at hand to " + action + " to, only DELETE applies to their copies.");
+            }
+            if (operation == PhotoCompare.OPERATIONS.PAYLOAD_DUPLICATE) {
+                log.warn("Files sharing the image data of an original might differ in their metadata, a rollback restores the metadata of the original.");
+            }
+            if (!photoCompare.isInteractive() || Application.waitForYes(BY_PASS_ENABLED)) {
+                // a cluster keeps its survivor in any of the roots, the copies might be found under the original path as well
+                List<Path> deletionRoots = new ArrayList<>(otherPaths);
+                if (operation == PhotoCompare.OPERATIONS.CLUSTER) {
+                    deletionRoots.add(originalPath);
+                }
+                photoCompare.getMetrics().time(DedupMetrics.Phase.DELETION, () -> performCollectionDeletion(action, deletionRoots, collectEntries));
             } else {
                 log.info("Per your choice files were NOT DELETED.");
             }
         } else {
             log.info("No files found to DELETE, skipping.");
         }
+
+        photoCompare.getMetrics().writeSummary(Path.of(System.getProperty(METRICS_PROPERTY, Path.of(System.getProperty("user.home"), ".snap.organis.io",
+                "metrics-" + DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").format(LocalDateTime.now()) + ".json").toString())));
+    }
+
+    private static int performCollectionDeletion(DeletionPlanner.Action action, List<Path> otherPaths, List<Match> collectEntries) {
+        return new DeletionPlanner(action, otherPaths, journalPath()).execute(collectEntries);
     }
 
-    private static void performCollectionDeletion(Path originalPath, List<Path> otherPaths, List<Path> collectEntries) {
-        collectEntries.stream()
-                .filter(path -> otherPaths.stream().anyMatch(otherPath -> path.startsWith(otherPath)))
-                .forEach(path -> {
-                    log.info("File '" + path.toAbsolutePath() + "' " + (path.toFile().delete() ? "deleted successfully!" : "DELETED NOT SUCCESSFULLY!") + ".");
-
-                    File directory = path.getParent().toFile();
-                    log.info("Checking path '" + directory.getAbsolutePath() + "' for deletion ...");
-                    while (directory.isDirectory() && directory.list().length == 0 && directory.toPath().compareTo(originalPath) != 0 && waitForYes(BY_PASS_ENABLED)) {
-                       log.info("Parent path was empty '" + directory.getAbsolutePath() + "', " + (directory.delete() ? " deleted!" : " DELETE WAS NOT SUCCESSFUL!"));
-                       directory = directory.toPath().getParent().toFile();
-                        log.info("Checking path '" + directory.getAbsolutePath() + "' for deletion ...");
-                    }
-                    log.info("Non-empty parent directory found or a directory to skip out the deleting state at '" + directory.toPath().toAbsolutePath() + "'.");
-                });
+    private static Path journalPath() {
+        return Path.of(System.getProperty(JOURNAL_PROPERTY, Path.of(System.getProperty("user.home"), ".snap.organis.io",
+                "journal-" + DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").format(LocalDateTime.now()) + ".tsv").toString()));
     }
 
 }
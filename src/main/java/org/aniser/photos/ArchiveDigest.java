@@ -0,0 +1,267 @@
+package org.aniser.photos;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Portable digest file of an originals root, so other files can be checked against an archive that isn't mounted. It holds the size and
+ * the first {@link #DIGEST_BYTES} bytes of the SHA-256 content digest of every original, sorted by both, prefixed by an optional Bloom filter
+ * of the digests answering most of the lookups of other files without touching the sorted records.
+ * <pre>
+ * magic "SNAPDIG1", int digest bytes, int bloom hashes, long bloom bits, long records, long[] bloom words, records of (long size, byte[] digest)
+ * </pre>
+ * The file is mapped read-only, only the pages of the records looked up are ever read.
+ */
+@Slf4j
+public class ArchiveDigest implements Closeable {
+
+    public static final int DEFAULT_BLOOM_BITS_PER_ENTRY = 10;
+
+    // 128 bits of SHA-256 keep collisions out of reach of any photo archive at half the size of the whole digest
+    static final int DIGEST_BYTES = 16;
+
+    private static final byte[] MAGIC = "SNAPDIG1".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = MAGIC.length + Integer.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES;
+    private static final int RECORD_SIZE = Long.BYTES + DIGEST_BYTES;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer records;
+    private final long[] bloom;
+    private final int bloomHashes;
+    private final int count;
+
+    private ArchiveDigest(Path path, FileChannel channel, ByteBuffer records, long[] bloom, int bloomHashes, int count) {
+        this.path = path;
+        this.channel = channel;
+        this.records = records;
+        this.bloom = bloom;
+        this.bloomHashes = bloomHashes;
+        this.count = count;
+    }
+
+    /**
+     * Whether the path is a digest file rather than an originals root.
+     */
+    public static boolean isArchiveDigest(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (InputStream input = Files.newInputStream(path)) {
+            return Arrays.equals(MAGIC, input.readNBytes(MAGIC.length));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the digest file of the originals given as their size and hexadecimal content digest, {@code bloomBitsPerEntry} of {@code 0} leaves the Bloom filter out.
+     */
+    public static void write(Path path, List<Map.Entry<Long, String>> originals, int bloomBitsPerEntry) {
+        List<Map.Entry<Long, byte[]>> records = new ArrayList<>();
+        originals.stream()
+                .map(original -> Map.entry(original.getKey(), truncate(original.getValue())))
+                .sorted(Comparator.<Map.Entry<Long, byte[]>>comparingLong(Map.Entry::getKey).thenComparing(Map.Entry::getValue, Arrays::compareUnsigned))
+                .forEach(original -> {
+                    // the same content found twice in the archive is recorded once
+                    Map.Entry<Long, byte[]> previous = records.isEmpty() ? null : records.get(records.size() - 1);
+                    if (previous == null || !previous.getKey().equals(original.getKey()) || !Arrays.equals(previous.getValue(), original.getValue())) {
+                        records.add(original);
+                    }
+                });
+        long bloomBits = bloomBitsPerEntry <= 0 || records.isEmpty() ? 0 : (((long) records.size() * bloomBitsPerEntry + 63) / 64) * 64;
+        // the optimal number of hashes is ln 2 times the bits per entry
+        int bloomHashes = bloomBits == 0 ? 0 : Math.max(1, (int) Math.round(bloomBitsPerEntry * Math.log(2)));
+        long[] bloom = new long[(int) (bloomBits / 64)];
+        records.forEach(record -> {
+            for (int hash = 0; hash < bloomHashes; hash++) {
+                long bit = bloomBit(record.getValue(), hash, bloomBits);
+                bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        });
+
+        Path temporary = path.toAbsolutePath().resolveSibling(path.getFileName() + ".snap-tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 64 * 1024))) {
+            output.write(MAGIC);
+            output.writeInt(DIGEST_BYTES);
+            output.writeInt(bloomHashes);
+            output.writeLong(bloomBits);
+            output.writeLong(records.size());
+            for (long word : bloom) {
+                output.writeLong(word);
+            }
+            for (Map.Entry<Long, byte[]> record : records) {
+                output.writeLong(record.getKey());
+                output.write(record.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Archive digest '" + path.toAbsolutePath() + "' couldn't be written!", e);
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Archive digest '" + path.toAbsolutePath() + "' couldn't be written!", e);
+        }
+        log.info("Archive digest '" + path.toAbsolutePath() + "' written with " + records.size() + " distinct originals of " + originals.size() + (bloomBits > 0 ? ", Bloom filter of " + bloomBits / 8 + " B." : "."));
+    }
+
+    public static ArchiveDigest open(Path path) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Archive digest '" + path.toAbsolutePath() + "' exceeds 2 GB!");
+            }
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] magic = new byte[MAGIC.length];
+            mapped.get(magic);
+            if (!Arrays.equals(MAGIC, magic) || mapped.getInt() != DIGEST_BYTES) {
+                throw new IllegalStateException("File '" + path.toAbsolutePath() + "' isn't an archive digest!");
+            }
+            int bloomHashes = mapped.getInt();
+            long bloomBits = mapped.getLong();
+            long count = mapped.getLong();
+            if (mapped.remaining() != bloomBits / 8 + count * RECORD_SIZE) {
+                throw new IllegalStateException("Archive digest '" + path.toAbsolutePath() + "' is truncated!");
+            }
+            long[] bloom = new long[(int) (bloomBits / 64)];
+            mapped.asLongBuffer().get(bloom);
+            ByteBuffer records = mapped.position(HEADER_SIZE + (int) (bloomBits / 8)).slice();
+            log.info("Archive digest '" + path.toAbsolutePath() + "' opened with " + count + " originals.");
+            return new ArchiveDigest(path, channel, records, bloom, bloomHashes, (int) count);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new UncheckedIOException("Archive digest '" + path.toAbsolutePath() + "' couldn't be opened!", e);
+        } catch (RuntimeException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Whether any original is of the size, only files of such a size need a digest.
+     */
+    public boolean containsSize(long size) {
+        int first = firstOfSize(size);
+        return first < count && sizeAt(first) == size;
+    }
+
+    public boolean contains(long size, String digest) {
+        byte[] truncated = truncate(digest);
+        if (!mightContain(truncated)) {
+            return false;
+        }
+        // the records are sorted by size and digest, a lookup is logarithmic however many originals share the size
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int compared = Long.compare(sizeAt(middle), size);
+            if (compared == 0) {
+                compared = Arrays.compareUnsigned(digestAt(middle), truncated);
+            }
+            if (compared == 0) {
+                return true;
+            } else if (compared < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return false;
+    }
+
+    boolean mightContain(byte[] digest) {
+        if (bloom.length == 0) {
+            return true;
+        }
+        long bits = (long) bloom.length * 64;
+        for (int hash = 0; hash < bloomHashes; hash++) {
+            long bit = bloomBit(digest, hash, bits);
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        closeQuietly(channel);
+    }
+
+    private int firstOfSize(long size) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sizeAt(middle) < size) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private long sizeAt(int record) {
+        return records.getLong(record * RECORD_SIZE);
+    }
+
+    private byte[] digestAt(int record) {
+        byte[] digest = new byte[DIGEST_BYTES];
+        records.get(record * RECORD_SIZE + Long.BYTES, digest);
+        return digest;
+    }
+
+    private static long bloomBit(byte[] digest, int hash, long bits) {
+        // the digest is uniform already, its two halves serve as the two hashes of double hashing
+        ByteBuffer halves = ByteBuffer.wrap(digest);
+        return Math.floorMod(halves.getLong(0) + hash * halves.getLong(Long.BYTES), bits);
+    }
+
+    static byte[] truncate(String digest) {
+        byte[] bytes = new byte[DIGEST_BYTES];
+        for (int i = 0; i < DIGEST_BYTES; i++) {
+            bytes[i] = (byte) Integer.parseInt(digest.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Archive digest channel couldn't be closed: " + e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.aniser.photos;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Burkhard-Keller tree over 64 bit hashes in the Hamming metric, a query within a small distance visits only a fraction of the tree.
+ * Nodes are kept in primitive arrays, children of a node are a linked list of siblings indexed by their distance to the parent.
+ */
+public class BkTree<T> {
+
+    private long[] hashes = new long[1024];
+    private int[] distances = new int[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private final List<T> values = new ArrayList<>();
+
+    public int size() {
+        return values.size();
+    }
+
+    public void add(long hash, T value) {
+        int node = values.size();
+        ensureCapacity(node + 1);
+        hashes[node] = hash;
+        firstChild[node] = -1;
+        nextSibling[node] = -1;
+        values.add(value);
+        if (node == 0) {
+            return;
+        }
+
+        int parent = 0;
+        while (true) {
+            int distance = PerceptualHash.distance(hash, hashes[parent]);
+            int child = childAt(parent, distance);
+            if (child < 0) {
+                distances[node] = distance;
+                nextSibling[node] = firstChild[parent];
+                firstChild[parent] = node;
+                return;
+            }
+            parent = child;
+        }
+    }
+
+    /**
+     * Values of all hashes within the {@code threshold} Hamming distance.
+     */
+    public List<T> search(long hash, int threshold) {
+        List<T> found = new ArrayList<>();
+        if (values.isEmpty()) {
+            return found;
+        }
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(0);
+        while (!pending.isEmpty()) {
+            int node = pending.pop();
+            int distance = PerceptualHash.distance(hash, hashes[node]);
+            if (distance <= threshold) {
+                found.add(values.get(node));
+            }
+            // triangle inequality, only children within [distance - threshold, distance + threshold] might match
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                if (Math.abs(distances[child] - distance) <= threshold) {
+                    pending.push(child);
+                }
+            }
+        }
+        return found;
+    }
+
+    private int childAt(int parent, int distance) {
+        for (int child = firstChild[parent]; child >= 0; child = nextSibling[child]) {
+            if (distances[child] == distance) {
+                return child;
+            }
+        }
+        return -1;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= hashes.length) {
+            return;
+        }
+        int grown = Math.max(capacity, hashes.length * 2);
+        hashes = Arrays.copyOf(hashes, grown);
+        distances = Arrays.copyOf(distances, grown);
+        firstChild = Arrays.copyOf(firstChild, grown);
+        nextSibling = Arrays.copyOf(nextSibling, grown);
+    }
+}
@@ -0,0 +1,166 @@
+package org.aniser.photos;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Records the confirmed size groups of a long run, so an interrupted run continues with the first unconfirmed group.
+ * <p>
+ * The first line describes the run the checkpoint belongs to, every other line is {@code size [\t path \t original \t digest]* \t .}
+ * for a single confirmed group, an unknown original or digest is {@code -}. A line without its closing {@code .} and line separator
+ * was cut short by a crash and is ignored. A checkpoint of a different run is discarded, a finished run deletes its checkpoint.
+ */
+@Slf4j
+public class Checkpoint implements Closeable {
+
+    public static final String FORMAT = "v1";
+
+    private static final String SEPARATOR = "\t";
+    private static final String NONE = "-";
+    private static final String END = ".";
+
+    private final Path checkpointPath;
+    private final int flushInterval;
+    private final Map<Long, List<Match>> confirmedGroups = new HashMap<>();
+    private BufferedWriter writer;
+    private int unflushed = 0;
+    private boolean cutShort = false;
+
+    private Checkpoint(Path checkpointPath, int flushInterval) {
+        this.checkpointPath = checkpointPath;
+        this.flushInterval = flushInterval;
+    }
+
+    public static Checkpoint open(Path checkpointPath, String run, int flushInterval) {
+        Checkpoint checkpoint = new Checkpoint(checkpointPath.toAbsolutePath(), Math.max(1, flushInterval));
+        try {
+            boolean resumed = checkpoint.load(run);
+            checkpoint.writer = Files.newBufferedWriter(checkpoint.checkpointPath, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, resumed ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            if (!resumed) {
+                checkpoint.writer.write(run + System.lineSeparator());
+                checkpoint.writer.flush();
+            } else if (checkpoint.cutShort) {
+                // the line cut short stays a line of its own instead of running into the next group
+                checkpoint.writer.write(System.lineSeparator());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Checkpoint '" + checkpoint.checkpointPath + "' couldn't be opened!", e);
+        }
+        return checkpoint;
+    }
+
+    private boolean load(String run) throws IOException {
+        if (!Files.isRegularFile(checkpointPath)) {
+            return false;
+        }
+        // whatever follows the last line separator was written only partially, if at all
+        cutShort = !endsWithLineSeparator();
+        try (BufferedReader reader = Files.newBufferedReader(checkpointPath, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            String next = line == null ? null : reader.readLine();
+            if (line == null || !line.equals(run) || (next == null && cutShort)) {
+                log.warn("Checkpoint '" + checkpointPath + "' belongs to another run, starting over.");
+                return false;
+            }
+            // streamed line by line, a line is taken once the next one shows it was completed
+            for (line = next; line != null; line = next) {
+                next = reader.readLine();
+                if (next != null || !cutShort) {
+                    loadGroup(line);
+                }
+            }
+        }
+        log.info("Resuming from checkpoint '" + checkpointPath + "' with " + confirmedGroups.size() + " groups already confirmed.");
+        return true;
+    }
+
+    private void loadGroup(String line) {
+        String[] columns = line.split(SEPARATOR, -1);
+        try {
+            long size = Long.parseLong(columns[0]);
+            if (columns.length % 3 != 2 || !END.equals(columns[columns.length - 1])) {
+                throw new IllegalArgumentException("Incomplete matches");
+            }
+            List<Match> selected = new ArrayList<>();
+            for (int column = 1; column < columns.length - 1; column += 3) {
+                selected.add(new Match(Path.of(columns[column]), NONE.equals(columns[column + 1]) ? null : Path.of(columns[column + 1]), size,
+                        NONE.equals(columns[column + 2]) ? null : columns[column + 2]));
+            }
+            confirmedGroups.put(size, selected);
+        } catch (IllegalArgumentException e) {
+            log.warn("Skipping a malformed checkpoint line '" + line + "'.");
+        }
+    }
+
+    private boolean endsWithLineSeparator() throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(checkpointPath)) {
+            if (channel.size() == 0) {
+                return false;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1).read(last);
+            return last.get(0) == '\n';
+        }
+    }
+
+    public boolean isConfirmed(long size) {
+        return confirmedGroups.containsKey(size);
+    }
+
+    public List<Match> getSelected(long size) {
+        return confirmedGroups.get(size);
+    }
+
+    public synchronized void confirmed(long size, List<Match> selected) {
+        try {
+            writer.write(size + selected.stream()
+                    .map(match -> SEPARATOR + match.getPath() + SEPARATOR + (match.getOriginal() == null ? NONE : match.getOriginal()) + SEPARATOR + (match.getDigest() == null ? NONE : match.getDigest()))
+                    .collect(Collectors.joining()) + SEPARATOR + END + System.lineSeparator());
+            if (++unflushed >= flushInterval) {
+                writer.flush();
+                unflushed = 0;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Checkpoint '" + checkpointPath + "' couldn't be written!", e);
+        }
+    }
+
+    /**
+     * The run went through every group, nothing is left to resume.
+     */
+    public synchronized void finished() {
+        close();
+        try {
+            Files.deleteIfExists(checkpointPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Checkpoint '" + checkpointPath + "' couldn't be deleted!", e);
+        }
+        log.info("All groups confirmed, checkpoint '" + checkpointPath + "' deleted.");
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Checkpoint '" + checkpointPath + "' couldn't be closed!", e);
+        }
+    }
+}
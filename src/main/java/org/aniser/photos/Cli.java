@@ -0,0 +1,142 @@
+package org.aniser.photos;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Headless commands for scripted runs, no Spring context is started and nothing is asked for. Every flag {@code --name=value}
+ * stands for the property {@code -Dsnap.name=value} of the interactive mode, a flag without a value is {@code true}.
+ * <pre>
+ * dedup &lt;original&gt; &lt;other&gt;... [--operation --action --report --catalog --concurrency --checkpoint --full --threshold --verify --journal --metrics --memory.entries --io.ssd --io.hdd]
+ * watch &lt;original&gt; &lt;inbox&gt;... [--policy --debounce --catalog --concurrency --verify --journal --io.ssd --io.hdd]
+ * details &lt;root&gt; [--details.places --details.radius --details.min --metadata.catalog --concurrency]
+ * rollback &lt;journal&gt;
+ * archive &lt;original&gt; &lt;digest file&gt; [--archive.bloom --catalog --concurrency --io.ssd --io.hdd]
+ * </pre>
+ * {@code dedup} only lists or reports unless an {@code --action} is given, the digest file written by {@code archive} stands for its original path. Only classes of the command itself are loaded, so a class data
+ * sharing archive recorded by a first run with {@code -XX:ArchiveClassesAtExit=snap.jsa} serves the following ones with {@code -XX:SharedArchiveFile=snap.jsa},
+ * the classpath has to consist of plain jars for it, not of the nested jars of the executable Spring Boot jar.
+ */
+@Slf4j
+final class Cli {
+
+    static final int OK = 0;
+    static final int FAILED = 1;
+    static final int USAGE = 2;
+
+    private static final Set<String> COMMON_FLAGS = Set.of("catalog", "concurrency", "verify", "journal", "metrics", "io.ssd", "io.hdd");
+    private static final Map<String, Set<String>> COMMAND_FLAGS = Map.of(
+            "dedup", Set.of("operation", "action", "report", "checkpoint", "full", "threshold", "memory.entries"),
+            "watch", Set.of("policy", "debounce"),
+            "details", Set.of("details.places", "details.radius", "details.min", "metadata.catalog"),
+            "rollback", Set.of(),
+            "archive", Set.of("archive.bloom"));
+    private static final Map<String, Integer> COMMAND_ARGUMENTS = Map.of("dedup", 2, "watch", 2, "details", 1, "rollback", 1, "archive", 2);
+    // flags named after what they mean to the command rather than after their property
+    private static final Map<String, String> RENAMED_FLAGS = Map.of("policy", "watch");
+
+    private Cli() {
+    }
+
+    static boolean isCommand(String argument) {
+        return COMMAND_FLAGS.containsKey(argument);
+    }
+
+    static int run(String[] args) {
+        String command = args[0];
+        List<String> arguments = new ArrayList<>();
+        Map<String, String> properties = new HashMap<>();
+        for (String argument : Arrays.asList(args).subList(1, args.length)) {
+            if (!argument.startsWith("--")) {
+                arguments.add(argument);
+                continue;
+            }
+            String[] flag = argument.substring(2).split("=", 2);
+            if (!COMMON_FLAGS.contains(flag[0]) && !COMMAND_FLAGS.get(command).contains(flag[0])) {
+                log.error("Unknown flag '" + argument + "' of the command " + command + ", known are " + flags(command) + ".");
+                return USAGE;
+            }
+            properties.put("snap." + RENAMED_FLAGS.getOrDefault(flag[0], flag[0]), flag.length > 1 ? flag[1] : "true");
+        }
+        if (arguments.size() < COMMAND_ARGUMENTS.get(command)) {
+            log.error("Too few arguments of the command " + command + ", " + COMMAND_ARGUMENTS.get(command) + " paths at least!");
+            return USAGE;
+        }
+
+        // the flags are visible as properties for the duration of the command only
+        Map<String, String> previous = new HashMap<>();
+        properties.forEach((name, value) -> previous.put(name, System.setProperty(name, value)));
+        try {
+            execute(command, arguments.stream().map(Path::of).collect(Collectors.toCollection(ArrayList::new)));
+            return OK;
+        } catch (RuntimeException e) {
+            log.error("Command " + command + " failed: " + e, e);
+            return FAILED;
+        } finally {
+            previous.forEach((name, value) -> {
+                if (value == null) {
+                    System.clearProperty(name);
+                } else {
+                    System.setProperty(name, value);
+                }
+            });
+        }
+    }
+
+    private static void execute(String command, List<Path> paths) {
+        switch (command) {
+            case "dedup":
+                PhotoCompare photoCompare = headless(new PhotoCompare());
+                try (DigestCatalog digestCatalog = Application.configure(photoCompare)) {
+                    Path originalPath = paths.remove(0);
+                    Application.run(photoCompare, Application.operation(), originalPath, paths, "", path -> true, Application.action().orElse(null));
+                }
+                break;
+            case "watch":
+                PhotoCompare watchingCompare = headless(new PhotoCompare());
+                try (DigestCatalog digestCatalog = Application.configure(watchingCompare)) {
+                    // watching ends with Ctrl-C, the digests computed since the last flush are written all the same
+                    Thread closing = new Thread(digestCatalog::close);
+                    Runtime.getRuntime().addShutdownHook(closing);
+                    try {
+                        Application.watch(watchingCompare, paths);
+                    } finally {
+                        Runtime.getRuntime().removeShutdownHook(closing);
+                    }
+                }
+                break;
+            case "details":
+                PhotoDetails.main(new String[]{paths.get(0).toString()});
+                break;
+            case "archive":
+                PhotoCompare archivingCompare = headless(new PhotoCompare());
+                try (DigestCatalog digestCatalog = Application.configure(archivingCompare)) {
+                    Application.archive(archivingCompare, paths.get(0), paths.get(1));
+                }
+                break;
+            case "rollback":
+                DeletionPlanner.rollback(paths.get(0));
+                break;
+            default:
+                throw new IllegalStateException("Unknown command " + command);
+        }
+    }
+
+    private static PhotoCompare headless(PhotoCompare photoCompare) {
+        photoCompare.setInteractive(false);
+        return photoCompare;
+    }
+
+    private static String flags(String command) {
+        return Stream.concat(COMMAND_FLAGS.get(command).stream(), COMMON_FLAGS.stream()).sorted().collect(Collectors.joining(", --", "--", ""));
+    }
+}
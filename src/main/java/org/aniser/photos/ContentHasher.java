@@ -0,0 +1,161 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Digests used to narrow down same-size groups before any pair of files is considered equal.
+ * The partial digest only samples the head and the tail of a file, the full digest streams the whole content.
+ */
+@Slf4j
+public class ContentHasher {
+
+    public static final int SAMPLE_SIZE = 64 * 1024;
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Digest algorithm " + ALGORITHM + " is not available!", e);
+        }
+    });
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Files up to this size are fully covered by the partial digest, so it is the full digest at the same time.
+     */
+    public static boolean sampleCoversFile(long size) {
+        return size <= 2L * SAMPLE_SIZE;
+    }
+
+    public String partialDigest(Path path) {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (sampleCoversFile(size)) {
+                FileChannels.update(digest, channel, 0, size);
+            } else {
+                FileChannels.update(digest, channel, 0, SAMPLE_SIZE);
+                FileChannels.update(digest, channel, size - SAMPLE_SIZE, SAMPLE_SIZE);
+            }
+        } catch (IOException e) {
+            throw unreadable(path, e);
+        }
+        return toHex(digest.digest());
+    }
+
+    public String fullDigest(Path path) {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            FileChannels.update(digest, channel, 0, channel.size());
+        } catch (IOException e) {
+            throw unreadable(path, e);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Digest of the image data of a JPEG regardless of its metadata segments, empty for any other file.
+     */
+    public Optional<String> payloadDigest(Path path) {
+        return payloadDigest(path, Long.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #payloadDigest(Path)} over the first {@link #SAMPLE_SIZE} bytes of the scans only.
+     */
+    public Optional<String> partialPayloadDigest(Path path) {
+        return payloadDigest(path, SAMPLE_SIZE);
+    }
+
+    private Optional<String> payloadDigest(Path path, long entropyLimit) {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (!JpegPayload.update(digest, channel, entropyLimit)) {
+                return Optional.empty();
+            }
+        } catch (IOException e) {
+            throw unreadable(path, e);
+        }
+        return Optional.of(toHex(digest.digest()));
+    }
+
+    /**
+     * Perceptual hash of an image, empty for files that aren't decodable images.
+     */
+    public OptionalLong perceptualHash(Path path) {
+        return PerceptualHash.dHash(path);
+    }
+
+    /**
+     * Same as {@link #partialDigest(Path)} of a listed file, a caching hasher takes its attributes from the listing.
+     */
+    public String partialDigest(FileEntry file) {
+        return partialDigest(file.getPath());
+    }
+
+    /**
+     * Same as {@link #fullDigest(Path)} of a listed file, a caching hasher takes its attributes from the listing.
+     */
+    public String fullDigest(FileEntry file) {
+        return fullDigest(file.getPath());
+    }
+
+    /**
+     * Same as {@link #perceptualHash(Path)} of a listed file, a caching hasher takes its attributes from the listing.
+     */
+    public OptionalLong perceptualHash(FileEntry file) {
+        return perceptualHash(file.getPath());
+    }
+
+    /**
+     * Digests answered without reading the file, none for the plain hasher.
+     */
+    public long getHits() {
+        return 0;
+    }
+
+    /**
+     * Digests that had to be computed from the file, not counted by the plain hasher.
+     */
+    public long getMisses() {
+        return 0;
+    }
+
+    /**
+     * Persists whatever was learnt about the files so far, nothing to do for the plain hasher.
+     */
+    public void flush() {
+    }
+
+    private static MessageDigest newDigest() {
+        MessageDigest digest = DIGESTS.get();
+        digest.reset();
+        return digest;
+    }
+
+    private static UncheckedIOException unreadable(Path path, IOException e) {
+        String message = "File '" + path.toAbsolutePath() + "' couldn't be read for hashing!";
+        log.error(message);
+        return new UncheckedIOException(message, e);
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,119 @@
+package org.aniser.photos;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Counters and timers of the de-duplication phases, published to the global Micrometer registry the Actuator exposes
+ * and kept in a registry of their own for the summary written at the end of a run. Every run gets metrics of its own,
+ * bytes read and cache lookups are counted from the moment the metrics were created.
+ */
+@Slf4j
+public class DedupMetrics {
+
+    public enum Phase {
+        WALK, GROUPING, CONFIRMATION, DELETION
+    }
+
+    private static final String PREFIX = "snap.";
+
+    private final SimpleMeterRegistry summaryRegistry = new SimpleMeterRegistry();
+    private final MeterRegistry registry;
+
+    public DedupMetrics() {
+        this(Metrics.globalRegistry);
+    }
+
+    public DedupMetrics(MeterRegistry publishedRegistry) {
+        CompositeMeterRegistry composite = new CompositeMeterRegistry();
+        composite.add(summaryRegistry);
+        composite.add(publishedRegistry);
+        this.registry = composite;
+        long bytesReadBefore = FileChannels.bytesRead();
+        FunctionCounter.builder(PREFIX + "bytes.read", this, metrics -> FileChannels.bytesRead() - bytesReadBefore)
+                .description("Bytes read by comparisons and digests")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    public <T> T time(Phase phase, Supplier<T> supplier) {
+        return Timer.builder(PREFIX + "phase")
+                .tag("phase", phase.name().toLowerCase(Locale.ROOT))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(supplier);
+    }
+
+    /**
+     * Latency of confirming a single size group, the histogram tells slow groups apart from many groups.
+     */
+    public <T> T timeGroup(Supplier<T> supplier) {
+        T result = Timer.builder(PREFIX + "group")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(supplier);
+        Counter.builder(PREFIX + "groups.resolved").register(registry).increment();
+        return result;
+    }
+
+    public void files(String side, long count) {
+        Counter.builder(PREFIX + "files").tag("side", side).register(registry).increment(count);
+    }
+
+    public <T> void bindCache(T cache, ToDoubleFunction<T> hits, ToDoubleFunction<T> misses) {
+        double hitsBefore = hits.applyAsDouble(cache);
+        double missesBefore = misses.applyAsDouble(cache);
+        FunctionCounter.builder(PREFIX + "catalog.hits", cache, bound -> hits.applyAsDouble(bound) - hitsBefore).register(registry);
+        FunctionCounter.builder(PREFIX + "catalog.misses", cache, bound -> misses.applyAsDouble(bound) - missesBefore).register(registry);
+    }
+
+    /**
+     * Writes every meter with its measurements as a single JSON document.
+     */
+    public void writeSummary(Path summaryPath) {
+        String meters = summaryRegistry.getMeters().stream()
+                .sorted(Comparator.comparing((Meter meter) -> meter.getId().getName()).thenComparing(meter -> meter.getId().getTags().toString()))
+                .map(DedupMetrics::toJson)
+                .collect(Collectors.joining(",\n    "));
+        try {
+            Files.createDirectories(summaryPath.toAbsolutePath().getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(summaryPath, StandardCharsets.UTF_8)) {
+                writer.write("{\n  \"meters\": [\n    " + meters + "\n  ]\n}\n");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Metrics summary '" + summaryPath.toAbsolutePath() + "' couldn't be written!", e);
+        }
+        log.info("Metrics summary written to '" + summaryPath.toAbsolutePath() + "'.");
+    }
+
+    private static String toJson(Meter meter) {
+        String tags = meter.getId().getTags().stream()
+                .map(tag -> Json.string(tag.getKey()) + ": " + Json.string(tag.getValue()))
+                .collect(Collectors.joining(", "));
+        String measurements = StreamSupport.stream(meter.measure().spliterator(), false)
+                .map(measurement -> Json.string(measurement.getStatistic().getTagValueRepresentation()) + ": " + Json.number(measurement.getValue()))
+                .collect(Collectors.joining(", "));
+        return "{\"name\": " + Json.string(meter.getId().getName()) + ", \"tags\": {" + tags + "}, \"measurements\": {" + measurements + "}}";
+    }
+}
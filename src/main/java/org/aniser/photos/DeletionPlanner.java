@@ -0,0 +1,251 @@
+package org.aniser.photos;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Removes matched files batched by their directory and prunes the emptied directories bottom-up, each of them checked once.
+ * Instead of removing, a file can be replaced by a hardlink or a reflink to its original, which keeps the layout of the tree.
+ * <p>
+ * Every executed step is appended to a journal {@code action \t status \t path \t original \t digest}, a journal can be rolled back
+ * as every removed or replaced file is byte-identical to its original. A file without any original, an original selected by
+ * {@code ORIGINALS} or a copy of an archived original, is deleted all the same, the journal keeps the content digest of what was
+ * removed although it can't be restored.
+ */
+@Slf4j
+public class DeletionPlanner {
+
+    public enum Action {
+        DELETE, HARDLINK, REFLINK
+    }
+
+    private static final String PRUNE = "PRUNE";
+    private static final String OK = "OK";
+    private static final String FAILED = "FAILED";
+    private static final String SEPARATOR = "\t";
+    private static final String NONE = "-";
+
+    private final Action action;
+    private final List<Path> roots;
+    private final Path journalPath;
+    private final ContentHasher contentHasher = new ContentHasher();
+
+    /**
+     * Only files under the {@code roots} are touched, the roots themselves are never pruned.
+     */
+    public DeletionPlanner(Action action, Collection<Path> roots, Path journalPath) {
+        this.action = action;
+        this.roots = roots.stream().map(Path::toAbsolutePath).collect(Collectors.toList());
+        this.journalPath = journalPath.toAbsolutePath();
+    }
+
+    /**
+     * Returns the number of files removed or replaced.
+     */
+    public int execute(List<Match> matches) {
+        long unlinkable = action == Action.DELETE ? 0 : matches.stream().filter(match -> match.getOriginal() == null).count();
+        if (unlinkable > 0) {
+            log.warn(unlinkable + " files have no original at hand to " + action + " to, copies of an offline archive digest among them, they are left untouched. Only DELETE applies to them.");
+        }
+        Map<Path, List<Match>> byDirectory = matches.stream()
+                .filter(match -> isUnderRoot(match.getPath().toAbsolutePath()))
+                .filter(DeletionPlanner::isNotItsOwnOriginal)
+                .filter(match -> action == Action.DELETE || match.getOriginal() != null)
+                .collect(Collectors.groupingBy(match -> match.getPath().toAbsolutePath().getParent(), TreeMap::new, Collectors.toList()));
+
+        int done = 0;
+        try {
+            Files.createDirectories(journalPath.getParent());
+            try (BufferedWriter journal = Files.newBufferedWriter(journalPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (Map.Entry<Path, List<Match>> directory : byDirectory.entrySet()) {
+                    int failed = 0;
+                    for (Match match : directory.getValue()) {
+                        Path path = match.getPath().toAbsolutePath();
+                        Path original = match.getOriginal() == null ? null : match.getOriginal().toAbsolutePath();
+                        // nothing to restore a file without an original from, the journal tells at least what it was
+                        String digest = original == null ? digest(match) : match.getDigest();
+                        boolean succeeded = perform(path, original);
+                        journal.write(action + SEPARATOR + (succeeded ? OK : FAILED) + SEPARATOR + path + SEPARATOR + (original == null ? NONE : original)
+                                + SEPARATOR + (digest == null ? NONE : digest) + System.lineSeparator());
+                        done += succeeded ? 1 : 0;
+                        failed += succeeded ? 0 : 1;
+                    }
+                    journal.flush();
+                    log.info("Directory '" + directory.getKey() + "': " + (directory.getValue().size() - failed) + " files " + action + (failed > 0 ? ", " + failed + " NOT SUCCESSFUL!" : "."));
+                }
+                if (action == Action.DELETE) {
+                    prune(byDirectory.keySet(), journal);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal '" + journalPath + "' couldn't be written!", e);
+        }
+        log.info(done + " files " + action + ", journal written to '" + journalPath + "'.");
+        return done;
+    }
+
+    private boolean perform(Path path, Path original) {
+        try {
+            switch (action) {
+                case DELETE:
+                    Files.delete(path);
+                    return true;
+                case HARDLINK:
+                    if (Files.isSameFile(path, original)) {
+                        return true;
+                    }
+                    Path link = temporarySibling(path);
+                    Files.createLink(link, original);
+                    Files.move(link, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    return true;
+                case REFLINK:
+                    Path clone = temporarySibling(path);
+                    if (!reflink(original, clone)) {
+                        Files.deleteIfExists(clone);
+                        return false;
+                    }
+                    Files.move(clone, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    return true;
+                default:
+                    throw new IllegalStateException("Unknown action " + action);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("File '" + path + "' couldn't be " + action + ": " + e);
+            return false;
+        }
+    }
+
+    private String digest(Match match) {
+        if (match.getDigest() != null) {
+            return match.getDigest();
+        }
+        try {
+            return contentHasher.fullDigest(match.getPath());
+        } catch (UncheckedIOException e) {
+            log.warn("File '" + match.getPath().toAbsolutePath() + "' couldn't be digested for the journal: " + e.getCause());
+            return null;
+        }
+    }
+
+    private static boolean reflink(Path original, Path clone) throws IOException {
+        // no JDK API shares extents, GNU cp does it on btrfs, XFS and the like and fails elsewhere
+        Process process = new ProcessBuilder("cp", "--reflink=always", original.toString(), clone.toString())
+                .redirectErrorStream(true)
+                .start();
+        try {
+            if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                return false;
+            }
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            if (process.exitValue() != 0) {
+                log.warn("Reflink of '" + original + "' not supported here: " + output);
+                return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            return false;
+        }
+    }
+
+    private void prune(Collection<Path> directories, BufferedWriter journal) throws IOException {
+        // deepest first, a parent is checked only after all of its emptied children are gone
+        TreeSet<Path> pending = new TreeSet<>(Comparator.comparingInt(Path::getNameCount).reversed().thenComparing(Comparator.naturalOrder()));
+        pending.addAll(directories);
+        int pruned = 0;
+        while (!pending.isEmpty()) {
+            Path directory = pending.pollFirst();
+            if (!isUnderRoot(directory) || roots.contains(directory) || !isEmptyDirectory(directory)) {
+                continue;
+            }
+            Files.delete(directory);
+            journal.write(PRUNE + SEPARATOR + OK + SEPARATOR + directory + SEPARATOR + NONE + SEPARATOR + NONE + System.lineSeparator());
+            pruned++;
+            pending.add(directory.getParent());
+        }
+        journal.flush();
+        log.info(pruned + " emptied directories deleted.");
+    }
+
+    /**
+     * Restores every step of the journal in the reverse order, removed and replaced files are copied back from their originals.
+     */
+    public static int rollback(Path journalPath) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(journalPath, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal '" + journalPath.toAbsolutePath() + "' couldn't be read!", e);
+        }
+        int restored = 0;
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            String[] columns = lines.get(i).split(SEPARATOR, 5);
+            if (columns.length < 5 || !OK.equals(columns[1])) {
+                continue;
+            }
+            Path path = Path.of(columns[2]);
+            Path original = NONE.equals(columns[3]) ? null : Path.of(columns[3]);
+            try {
+                if (PRUNE.equals(columns[0])) {
+                    Files.createDirectories(path);
+                } else if (original == null) {
+                    log.warn("File '" + path + "' had no original, it can't be restored, its content digest was " + columns[4] + ".");
+                    continue;
+                } else {
+                    Path copy = temporarySibling(path);
+                    Files.copy(original, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                    Files.move(copy, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                restored++;
+            } catch (IOException e) {
+                log.error("Step '" + lines.get(i) + "' couldn't be rolled back: " + e);
+            }
+        }
+        log.info(restored + " steps of journal '" + journalPath.toAbsolutePath() + "' rolled back.");
+        return restored;
+    }
+
+    private static boolean isNotItsOwnOriginal(Match match) {
+        if (match.getOriginal() != null && match.getPath().toAbsolutePath().normalize().equals(match.getOriginal().toAbsolutePath().normalize())) {
+            log.error("File '" + match.getPath().toAbsolutePath() + "' is matched to itself, it is left untouched!");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isUnderRoot(Path path) {
+        return roots.stream().anyMatch(path::startsWith);
+    }
+
+    private static boolean isEmptyDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return false;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            return !entries.iterator().hasNext();
+        }
+    }
+
+    private static Path temporarySibling(Path path) {
+        return path.resolveSibling("." + path.getFileName() + ".snap-tmp");
+    }
+}
@@ -0,0 +1,250 @@
+package org.aniser.photos;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import lombok.Value;
+import lombok.With;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Content hasher backed by an append-only catalog file, so unchanged files are never read again across runs.
+ * A file is considered unchanged while its size, modification time and file key stay the same, those of a listed file
+ * are taken from its {@link FileEntry}, any other file is stat'ed.
+ * <p>
+ * Every line of the catalog is {@code size \t mtime \t fileKey \t partialDigest \t fullDigest \t perceptualHash \t absolutePath},
+ * later lines win over earlier ones for the same path. Lines written before perceptual hashes were cached lack that column.
+ */
+@Slf4j
+public class DigestCatalog extends ContentHasher implements Closeable {
+
+    private static final String SEPARATOR = "\t";
+    private static final String NONE = "-";
+    private static final String NOT_AN_IMAGE = "!";
+
+    private final Path catalogPath;
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private BufferedWriter writer;
+
+    @Value
+    @With
+    static class Entry {
+        long size;
+        long lastModified;
+        String fileKey;
+        String partialDigest;
+        String fullDigest;
+        String perceptualHash;
+
+        boolean sameFile(Entry other) {
+            return size == other.size && lastModified == other.lastModified && Objects.equals(fileKey, other.fileKey);
+        }
+    }
+
+    private DigestCatalog(Path catalogPath) {
+        this.catalogPath = catalogPath;
+    }
+
+    public static DigestCatalog open(Path catalogPath) {
+        DigestCatalog catalog = new DigestCatalog(catalogPath.toAbsolutePath());
+        try {
+            Files.createDirectories(catalog.catalogPath.getParent());
+            int lines = catalog.load();
+            if (lines > 2 * catalog.entries.size() && lines > 1024) {
+                catalog.compact();
+            }
+            catalog.writer = Files.newBufferedWriter(catalog.catalogPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Digest catalog '" + catalog.catalogPath + "' couldn't be opened!", e);
+        }
+        log.info("Digest catalog '" + catalog.catalogPath + "' opened with " + catalog.entries.size() + " entries.");
+        return catalog;
+    }
+
+    @Override
+    public String partialDigest(Path path) {
+        return partialDigest(stat(path));
+    }
+
+    @Override
+    public String partialDigest(FileEntry file) {
+        return lookup(file, Entry::getPartialDigest, super::partialDigest, Entry::withPartialDigest);
+    }
+
+    @Override
+    public String fullDigest(Path path) {
+        return fullDigest(stat(path));
+    }
+
+    @Override
+    public String fullDigest(FileEntry file) {
+        return lookup(file, Entry::getFullDigest, super::fullDigest, Entry::withFullDigest);
+    }
+
+    @Override
+    public OptionalLong perceptualHash(Path path) {
+        FileEntry file;
+        try {
+            file = stat(path);
+        } catch (UncheckedIOException e) {
+            log.warn(e.getMessage() + " " + e.getCause());
+            return OptionalLong.empty();
+        }
+        return perceptualHash(file);
+    }
+
+    @Override
+    public OptionalLong perceptualHash(FileEntry file) {
+        String hash;
+        try {
+            hash = lookup(file, Entry::getPerceptualHash, image -> {
+                OptionalLong perceptualHash;
+                try {
+                    perceptualHash = PerceptualHash.decode(image);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Image '" + image + "' couldn't be read for a perceptual hash!", e);
+                }
+                return perceptualHash.isPresent() ? Long.toHexString(perceptualHash.getAsLong()) : NOT_AN_IMAGE;
+            }, Entry::withPerceptualHash);
+        } catch (UncheckedIOException e) {
+            // only a file that is no image is remembered as such, a failed read is tried again next time
+            log.warn(e.getMessage() + " " + e.getCause());
+            return OptionalLong.empty();
+        }
+        return NOT_AN_IMAGE.equals(hash) ? OptionalLong.empty() : OptionalLong.of(Long.parseUnsignedLong(hash, 16));
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private String lookup(FileEntry file, Function<Entry, String> digestOf, Function<Path, String> compute, BiFunction<Entry, String, Entry> withDigest) {
+        Path key = file.getPath().toAbsolutePath();
+        Entry current = new Entry(file.getSize(), file.getLastModified(), file.getFileKey() == null ? null : file.getFileKey().toString(), null, null, null);
+        Entry cached = entries.get(key);
+        boolean unchanged = cached != null && cached.sameFile(current);
+        if (unchanged && digestOf.apply(cached) != null) {
+            hits.incrementAndGet();
+            return digestOf.apply(cached);
+        }
+        misses.incrementAndGet();
+        String digest = compute.apply(key);
+        Entry updated = withDigest.apply(unchanged ? cached : current, digest);
+        entries.put(key, updated);
+        append(key, updated);
+        return digest;
+    }
+
+    private static FileEntry stat(Path path) {
+        try {
+            return FileEntry.of(path, Files.readAttributes(path, BasicFileAttributes.class));
+        } catch (IOException e) {
+            throw new UncheckedIOException("File '" + path + "' couldn't be inspected!", e);
+        }
+    }
+
+    private int load() throws IOException {
+        if (!Files.isRegularFile(catalogPath)) {
+            return 0;
+        }
+        // streamed line by line, only the index of the entries is kept in memory
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(catalogPath, StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines++;
+                load(line);
+            }
+        }
+        return lines;
+    }
+
+    private void load(String line) {
+        String[] columns = line.split(SEPARATOR, 7);
+        if (columns.length < 6) {
+            log.warn("Skipping a malformed digest catalog line '" + line + "'.");
+            return;
+        }
+        boolean withPerceptualHash = columns.length == 7;
+        try {
+            entries.put(Path.of(columns[columns.length - 1]), new Entry(Long.parseLong(columns[0]), Long.parseLong(columns[1]),
+                    valueOf(columns[2]), valueOf(columns[3]), valueOf(columns[4]), withPerceptualHash ? valueOf(columns[5]) : null));
+        } catch (IllegalArgumentException e) {
+            log.warn("Skipping a malformed digest catalog line '" + line + "'.");
+        }
+    }
+
+    private void compact() throws IOException {
+        Path compacted = catalogPath.resolveSibling(catalogPath.getFileName() + ".compacting");
+        try (BufferedWriter compactWriter = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+                compactWriter.write(format(entry.getKey(), entry.getValue()));
+            }
+        }
+        Files.move(compacted, catalogPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Digest catalog '" + catalogPath + "' compacted to " + entries.size() + " entries.");
+    }
+
+    private synchronized void append(Path path, Entry entry) {
+        try {
+            writer.write(format(path, entry));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Digest catalog '" + catalogPath + "' couldn't be written!", e);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Digest catalog '" + catalogPath + "' couldn't be written!", e);
+        }
+        log.info("Digest catalog '" + catalogPath + "' flushed, " + hits.get() + " digests reused and " + misses.get() + " computed.");
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Digest catalog '" + catalogPath + "' couldn't be closed!", e);
+        }
+    }
+
+    private static String format(Path path, Entry entry) {
+        return entry.getSize() + SEPARATOR + entry.getLastModified() + SEPARATOR + orNone(entry.getFileKey()) + SEPARATOR
+                + orNone(entry.getPartialDigest()) + SEPARATOR + orNone(entry.getFullDigest()) + SEPARATOR + orNone(entry.getPerceptualHash()) + SEPARATOR + path + System.lineSeparator();
+    }
+
+    private static String orNone(String value) {
+        return value == null ? NONE : value;
+    }
+
+    private static String valueOf(String column) {
+        return NONE.equals(column) ? null : column;
+    }
+}
@@ -0,0 +1,204 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Clusters identical files across any number of roots at once, within a single root as well as between any two of them.
+ * Every root is listed once into a {@link FileCatalog}, files of a size are joined by a union-find over a partial digest
+ * index and, unless the sample covered the whole file, a full digest index, so every candidate file is read only once per digest tier.
+ * <p>
+ * The copy surviving in a cluster is chosen by the priority of its root, the root listed first wins, then by the oldest
+ * modification time and the path. Every other copy is returned as a {@link Match} of the survivor.
+ */
+@Slf4j
+public class DuplicateClusterer {
+
+    private final ContentHasher contentHasher;
+    private final int concurrency;
+    private final boolean verifyCollisions;
+    private final IoScheduler ioScheduler;
+
+    public DuplicateClusterer(ContentHasher contentHasher, int concurrency, boolean verifyCollisions) {
+        this(contentHasher, concurrency, verifyCollisions, null);
+    }
+
+    /**
+     * Reads through the {@code ioScheduler} unless it is null, the roots are usually spread over several devices.
+     */
+    public DuplicateClusterer(ContentHasher contentHasher, int concurrency, boolean verifyCollisions, IoScheduler ioScheduler) {
+        this.contentHasher = contentHasher;
+        this.concurrency = Math.max(1, concurrency);
+        this.verifyCollisions = verifyCollisions;
+        this.ioScheduler = ioScheduler;
+    }
+
+    /**
+     * {@code rootFiles.get(i)} lists the files of the root of priority {@code i}, the result is ordered by size.
+     * The copies of every size are passed to {@code resolved} as soon as they are known.
+     */
+    public List<Match> cluster(List<List<FileEntry>> rootFiles, int catalogEntriesInMemory, Consumer<List<Match>> resolved) {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, PhotoCompare.daemonThreads("cluster"));
+        try (FileCatalog catalog = new FileCatalog(catalogEntriesInMemory)) {
+            for (int root = 0; root < rootFiles.size(); root++) {
+                for (FileEntry file : rootFiles.get(root)) {
+                    // Skip mac hidden dot files
+                    if (file.getSize() > 0 && file.getSize() != 4096) {
+                        catalog.add(root, file);
+                    }
+                }
+            }
+            // joined in the submission order the clusters come out the same whatever the concurrency is
+            int window = concurrency * 4;
+            Deque<CompletableFuture<List<Match>>> clusters = new ArrayDeque<>();
+            List<Match> matches = new ArrayList<>();
+            catalog.forEachGroup(group -> {
+                if (clusters.size() >= window) {
+                    matches.addAll(PhotoCompare.join(clusters.poll()));
+                }
+                clusters.add(CompletableFuture.supplyAsync(() -> {
+                    List<Match> copies = clusterGroup(group);
+                    resolved.accept(copies);
+                    return copies;
+                }, executor));
+            });
+            while (!clusters.isEmpty()) {
+                matches.addAll(PhotoCompare.join(clusters.poll()));
+            }
+            log.info(matches.size() + " copies found across " + rootFiles.size() + " roots of " + catalog.size() + " files.");
+            return matches;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    List<Match> clusterGroup(FileCatalog.Group group) {
+        List<Path> paths = group.getPaths();
+        UnionFind sameContent = new UnionFind(paths.size());
+        String[] digests = new String[paths.size()];
+
+        // every digest tier of the group is queued at once, the reads of a device are taken in the order of their inodes
+        List<CompletableFuture<String>> partialDigests = new ArrayList<>();
+        for (int entry = 0; entry < paths.size(); entry++) {
+            FileEntry file = group.entry(entry);
+            partialDigests.add(IoScheduler.schedule(ioScheduler, file, () -> contentHasher.partialDigest(file)));
+        }
+        Map<String, List<Integer>> byPartial = new HashMap<>();
+        for (int entry = 0; entry < paths.size(); entry++) {
+            digests[entry] = PhotoCompare.join(partialDigests.get(entry));
+            byPartial.computeIfAbsent(digests[entry], digest -> new ArrayList<>()).add(entry);
+        }
+        Map<Integer, CompletableFuture<String>> fullDigests = new HashMap<>();
+        for (List<Integer> samePartial : byPartial.values()) {
+            if (samePartial.size() < 2) {
+                continue;
+            }
+            if (ContentHasher.sampleCoversFile(group.getSize())) {
+                samePartial.forEach(entry -> sameContent.union(samePartial.get(0), entry));
+                continue;
+            }
+            for (int entry : samePartial) {
+                FileEntry file = group.entry(entry);
+                fullDigests.put(entry, IoScheduler.schedule(ioScheduler, file, () -> contentHasher.fullDigest(file)));
+            }
+        }
+        for (List<Integer> samePartial : byPartial.values()) {
+            Map<String, Integer> byFull = new HashMap<>();
+            for (int entry : samePartial) {
+                if (fullDigests.containsKey(entry)) {
+                    digests[entry] = PhotoCompare.join(fullDigests.get(entry));
+                    sameContent.union(byFull.computeIfAbsent(digests[entry], digest -> entry), entry);
+                }
+            }
+        }
+
+        Comparator<Integer> survival = Comparator.<Integer>comparingInt(entry -> group.getRoots()[entry])
+                .thenComparingLong(entry -> group.getLastModified()[entry])
+                .thenComparing(paths::get);
+        Map<Integer, List<Integer>> clusters = new HashMap<>();
+        for (int entry = 0; entry < paths.size(); entry++) {
+            clusters.computeIfAbsent(sameContent.find(entry), any -> new ArrayList<>()).add(entry);
+        }
+        List<Match> matches = new ArrayList<>();
+        for (List<Integer> cluster : clusters.values()) {
+            if (cluster.size() < 2) {
+                continue;
+            }
+            cluster.sort(survival);
+            Path survivor = paths.get(cluster.get(0));
+            for (int entry : cluster.subList(1, cluster.size())) {
+                Path copy = paths.get(entry);
+                if (isSameFile(survivor, copy)) {
+                    log.warn("File '" + copy.toAbsolutePath() + "' was listed twice or is a hardlink of '" + survivor.toAbsolutePath() + "', it is no copy to remove!");
+                    continue;
+                }
+                if (verifyCollisions && !PhotoCompare.fileAreEqual(survivor, copy)) {
+                    log.error("Files '" + survivor.toAbsolutePath() + "' and '" + copy.toAbsolutePath() + "' share a digest but differ in content!");
+                    continue;
+                }
+                log.info(String.format("%50s", copy.toAbsolutePath()) + " duplicates survivor " + survivor.toAbsolutePath());
+                matches.add(new Match(copy, survivor, group.getSize(), digests[entry]));
+            }
+        }
+        matches.sort(Comparator.comparing(Match::getPath));
+        return matches;
+    }
+
+    private static boolean isSameFile(Path survivor, Path copy) {
+        if (survivor.toAbsolutePath().normalize().equals(copy.toAbsolutePath().normalize())) {
+            return true;
+        }
+        try {
+            return Files.isSameFile(survivor, copy);
+        } catch (IOException e) {
+            // unknown is the same as far as removing is concerned
+            log.warn("Files '" + survivor.toAbsolutePath() + "' and '" + copy.toAbsolutePath() + "' couldn't be told apart: " + e);
+            return true;
+        }
+    }
+
+    private static class UnionFind {
+        private final int[] parents;
+
+        UnionFind(int size) {
+            parents = new int[size];
+            for (int entry = 0; entry < size; entry++) {
+                parents[entry] = entry;
+            }
+        }
+
+        int find(int entry) {
+            while (parents[entry] != entry) {
+                // path halving
+                parents[entry] = parents[parents[entry]];
+                entry = parents[entry];
+            }
+            return entry;
+        }
+
+        void union(int first, int second) {
+            int firstRoot = find(first);
+            int secondRoot = find(second);
+            // the lower entry becomes the representative, clusters stay independent of the union order
+            if (firstRoot < secondRoot) {
+                parents[secondRoot] = firstRoot;
+            } else if (secondRoot < firstRoot) {
+                parents[firstRoot] = secondRoot;
+            }
+        }
+    }
+}
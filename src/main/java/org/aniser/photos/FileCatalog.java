@@ -0,0 +1,407 @@
+package org.aniser.photos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Columnar listing of files grouped by their size. Sizes and modification times are primitive columns, a path is kept as
+ * an interned directory id plus the UTF-8 bytes of its name and every entry carries the id of the root it was listed under
+ * and the file key the walker read, so the files of a group are read without another stat.
+ * <p>
+ * Grouping is a stable primitive sort of the entries by size. Once more than {@code maxEntriesInMemory} entries are added,
+ * the entries are sorted and spilled to a run file and the groups are then streamed from a merge of all the runs.
+ */
+@Slf4j
+public class FileCatalog implements Closeable {
+
+    /**
+     * Files of a single size in the order they were added, {@code roots[i]} is the root of {@code paths.get(i)}.
+     * A spilled file key comes back as its string form.
+     */
+    @Value
+    public static class Group {
+        long size;
+        List<Path> paths;
+        int[] roots;
+        long[] lastModified;
+        Object[] fileKeys;
+
+        public FileEntry entry(int entry) {
+            return new FileEntry(paths.get(entry), size, lastModified[entry], fileKeys[entry]);
+        }
+
+        public boolean containsRoot(int root) {
+            return Arrays.stream(roots).anyMatch(entryRoot -> entryRoot == root);
+        }
+
+        public boolean containsOtherRootThan(int root) {
+            return Arrays.stream(roots).anyMatch(entryRoot -> entryRoot != root);
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int maxEntriesInMemory;
+    private final Map<Path, Integer> directoryIds = new HashMap<>();
+    private final List<Path> directories = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private Path spillDirectory;
+
+    private long[] sizes = new long[0];
+    private long[] lastModified = new long[0];
+    private int[] roots = new int[0];
+    private Object[] fileKeys = new Object[0];
+    private int[] directoryOfEntry = new int[0];
+    private int[] nameOffsets = new int[1];
+    private byte[] names = new byte[0];
+    private int count = 0;
+    private long total = 0;
+
+    public FileCatalog() {
+        this(Integer.MAX_VALUE);
+    }
+
+    public FileCatalog(int maxEntriesInMemory) {
+        this.maxEntriesInMemory = Math.max(1, maxEntriesInMemory);
+    }
+
+    public long size() {
+        return total;
+    }
+
+    public void add(int root, FileEntry file) {
+        if (count == maxEntriesInMemory) {
+            spill();
+        }
+        if (count == sizes.length) {
+            int capacity = (int) Math.min(maxEntriesInMemory, Math.max(INITIAL_CAPACITY, 2L * sizes.length));
+            sizes = Arrays.copyOf(sizes, capacity);
+            lastModified = Arrays.copyOf(lastModified, capacity);
+            roots = Arrays.copyOf(roots, capacity);
+            fileKeys = Arrays.copyOf(fileKeys, capacity);
+            directoryOfEntry = Arrays.copyOf(directoryOfEntry, capacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+        }
+        byte[] name = file.getPath().getFileName().toString().getBytes(StandardCharsets.UTF_8);
+        int nameOffset = nameOffsets[count];
+        if (nameOffset + name.length > names.length) {
+            names = Arrays.copyOf(names, Math.max(INITIAL_CAPACITY, Math.max(nameOffset + name.length, 2 * names.length)));
+        }
+        System.arraycopy(name, 0, names, nameOffset, name.length);
+
+        sizes[count] = file.getSize();
+        lastModified[count] = file.getLastModified();
+        roots[count] = root;
+        fileKeys[count] = file.getFileKey();
+        directoryOfEntry[count] = directoryIds.computeIfAbsent(file.getPath().getParent(), directory -> {
+            directories.add(directory);
+            return directories.size() - 1;
+        });
+        nameOffsets[count + 1] = nameOffset + name.length;
+        count++;
+        total++;
+    }
+
+    /**
+     * Passes every group of at least two files to the consumer, ordered by size.
+     */
+    public void forEachGroup(Consumer<Group> consumer) {
+        List<Cursor> cursors = new ArrayList<>();
+        if (runs.isEmpty()) {
+            cursors.add(new MemoryCursor(sortedBySize()));
+        } else {
+            if (count > 0) {
+                spill();
+            }
+            runs.forEach(run -> cursors.add(new RunCursor(run)));
+        }
+        // the order of the runs breaks ties, entries of one size stay in the order they were added
+        PriorityQueue<Integer> pending = new PriorityQueue<>(Comparator.comparingLong((Integer cursor) -> cursors.get(cursor).size()).thenComparingInt(cursor -> cursor));
+        try {
+            for (int cursor = 0; cursor < cursors.size(); cursor++) {
+                if (cursors.get(cursor).next()) {
+                    pending.add(cursor);
+                }
+            }
+            GroupCollector group = new GroupCollector();
+            while (!pending.isEmpty()) {
+                Cursor cursor = cursors.get(pending.peek());
+                if (group.size != cursor.size()) {
+                    group.emit(consumer);
+                    group.size = cursor.size();
+                }
+                group.add(cursor.path(), cursor.root(), cursor.lastModified(), cursor.fileKey());
+                int next = pending.poll();
+                if (cursor.next()) {
+                    pending.add(next);
+                }
+            }
+            group.emit(consumer);
+        } finally {
+            cursors.forEach(Cursor::close);
+        }
+    }
+
+    /**
+     * Removes the spilled runs.
+     */
+    @Override
+    public void close() {
+        try {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            runs.clear();
+            if (spillDirectory != null) {
+                Files.deleteIfExists(spillDirectory);
+                spillDirectory = null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Catalog runs in '" + spillDirectory + "' couldn't be deleted!", e);
+        }
+    }
+
+    private Path path(int entry) {
+        return directories.get(directoryOfEntry[entry]).resolve(name(entry));
+    }
+
+    private String name(int entry) {
+        return new String(names, nameOffsets[entry], nameOffsets[entry + 1] - nameOffsets[entry], StandardCharsets.UTF_8);
+    }
+
+    private void spill() {
+        Path run;
+        try {
+            if (spillDirectory == null) {
+                spillDirectory = Files.createTempDirectory("snap-catalog");
+            }
+            run = spillDirectory.resolve("run-" + runs.size());
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), FileChannels.BUFFER_SIZE))) {
+                for (int entry : sortedBySize()) {
+                    output.writeLong(sizes[entry]);
+                    output.writeLong(lastModified[entry]);
+                    output.writeInt(roots[entry]);
+                    output.writeInt(directoryOfEntry[entry]);
+                    output.writeUTF(name(entry));
+                    output.writeBoolean(fileKeys[entry] != null);
+                    if (fileKeys[entry] != null) {
+                        output.writeUTF(String.valueOf(fileKeys[entry]));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Catalog run couldn't be spilled to '" + spillDirectory + "'!", e);
+        }
+        runs.add(run);
+        log.debug(count + " catalog entries spilled to '" + run + "'.");
+        Arrays.fill(fileKeys, 0, count, null);
+        count = 0;
+    }
+
+    private int[] sortedBySize() {
+        // bottom-up merge sort of the entry numbers, stable so the entries of one size keep the order they were added in
+        int[] order = new int[count];
+        Arrays.setAll(order, entry -> entry);
+        int[] buffer = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int low = 0; low < count; low += 2 * width) {
+                int middle = Math.min(low + width, count);
+                int high = Math.min(low + 2 * width, count);
+                int left = low;
+                int right = middle;
+                for (int position = low; position < high; position++) {
+                    if (left < middle && (right >= high || sizes[order[left]] <= sizes[order[right]])) {
+                        buffer[position] = order[left++];
+                    } else {
+                        buffer[position] = order[right++];
+                    }
+                }
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+    private interface Cursor extends Closeable {
+        boolean next();
+
+        long size();
+
+        int root();
+
+        long lastModified();
+
+        Object fileKey();
+
+        Path path();
+
+        @Override
+        void close();
+    }
+
+    private class MemoryCursor implements Cursor {
+        private final int[] order;
+        private int position = -1;
+
+        MemoryCursor(int[] order) {
+            this.order = order;
+        }
+
+        @Override
+        public boolean next() {
+            return ++position < order.length;
+        }
+
+        @Override
+        public long size() {
+            return sizes[order[position]];
+        }
+
+        @Override
+        public int root() {
+            return roots[order[position]];
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified[order[position]];
+        }
+
+        @Override
+        public Object fileKey() {
+            return fileKeys[order[position]];
+        }
+
+        @Override
+        public Path path() {
+            return FileCatalog.this.path(order[position]);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private class RunCursor implements Cursor {
+        private final Path run;
+        private final DataInputStream input;
+        private long size;
+        private long modified;
+        private int root;
+        private Path path;
+        private String fileKey;
+
+        RunCursor(Path run) {
+            this.run = run;
+            try {
+                this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), FileChannels.BUFFER_SIZE));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Catalog run '" + run + "' couldn't be opened!", e);
+            }
+        }
+
+        @Override
+        public boolean next() {
+            try {
+                size = input.readLong();
+            } catch (EOFException e) {
+                return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Catalog run '" + run + "' couldn't be read!", e);
+            }
+            try {
+                modified = input.readLong();
+                root = input.readInt();
+                path = directories.get(input.readInt()).resolve(input.readUTF());
+                fileKey = input.readBoolean() ? input.readUTF() : null;
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Catalog run '" + run + "' couldn't be read!", e);
+            }
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public int root() {
+            return root;
+        }
+
+        @Override
+        public long lastModified() {
+            return modified;
+        }
+
+        @Override
+        public Object fileKey() {
+            return fileKey;
+        }
+
+        @Override
+        public Path path() {
+            return path;
+        }
+
+        @Override
+        public void close() {
+            try {
+                input.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Catalog run '" + run + "' couldn't be closed!", e);
+            }
+        }
+    }
+
+    private static class GroupCollector {
+        private long size = -1;
+        private final List<Path> paths = new ArrayList<>();
+        private int[] roots = new int[16];
+        private long[] lastModified = new long[16];
+        private Object[] fileKeys = new Object[16];
+
+        void add(Path path, int root, long modified, Object fileKey) {
+            if (paths.size() == roots.length) {
+                roots = Arrays.copyOf(roots, 2 * roots.length);
+                lastModified = Arrays.copyOf(lastModified, 2 * lastModified.length);
+                fileKeys = Arrays.copyOf(fileKeys, 2 * fileKeys.length);
+            }
+            roots[paths.size()] = root;
+            lastModified[paths.size()] = modified;
+            fileKeys[paths.size()] = fileKey;
+            paths.add(path);
+        }
+
+        void emit(Consumer<Group> consumer) {
+            if (paths.size() > 1) {
+                consumer.accept(new Group(size, List.copyOf(paths), Arrays.copyOf(roots, paths.size()), Arrays.copyOf(lastModified, paths.size()), Arrays.copyOf(fileKeys, paths.size())));
+            }
+            Arrays.fill(fileKeys, 0, paths.size(), null);
+            paths.clear();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Channel based reading primitives shared by comparing and hashing. Every thread owns its pair of large direct buffers,
+ * so neither a comparison nor a digest allocates a buffer per file.
+ */
+public final class FileChannels {
+
+    public static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer[]> BUFFERS = ThreadLocal.withInitial(() -> new ByteBuffer[]{
+            ByteBuffer.allocateDirect(BUFFER_SIZE),
+            ByteBuffer.allocateDirect(BUFFER_SIZE)
+    });
+
+    private static final LongAdder BYTES_READ = new LongAdder();
+
+    private FileChannels() {
+    }
+
+    /**
+     * Bytes read by comparisons and digests since the start of the JVM.
+     */
+    public static long bytesRead() {
+        return BYTES_READ.sum();
+    }
+
+    /**
+     * Compares two files chunk by chunk, leaving at the first differing chunk. Sizes differing is answered without any read.
+     */
+    public static boolean contentEquals(Path first, Path second) throws IOException {
+        try (FileChannel firstChannel = FileChannel.open(first, StandardOpenOption.READ);
+             FileChannel secondChannel = FileChannel.open(second, StandardOpenOption.READ)) {
+            long size = firstChannel.size();
+            if (size != secondChannel.size()) {
+                return false;
+            }
+            ByteBuffer[] buffers = BUFFERS.get();
+            ByteBuffer firstBuffer = buffers[0];
+            ByteBuffer secondBuffer = buffers[1];
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(BUFFER_SIZE, size - position);
+                if (!readFully(firstChannel, firstBuffer, position, length) || !readFully(secondChannel, secondBuffer, position, length)) {
+                    // truncated while being compared
+                    return false;
+                }
+                // vectorized by the JDK intrinsics
+                if (firstBuffer.mismatch(secondBuffer) >= 0) {
+                    return false;
+                }
+                position += length;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Feeds {@code length} bytes starting at {@code position} to the digest, fewer if the file ends earlier.
+     */
+    public static void update(MessageDigest digest, FileChannel channel, long position, long length) throws IOException {
+        ByteBuffer buffer = BUFFERS.get()[0];
+        long remaining = length;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, remaining));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            BYTES_READ.add(read);
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+            remaining -= read;
+        }
+    }
+
+    /**
+     * A single positional read counted among the bytes read.
+     */
+    public static int read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int read = channel.read(buffer, position);
+        if (read > 0) {
+            BYTES_READ.add(read);
+        }
+        return read;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+            BYTES_READ.add(read);
+        }
+        buffer.flip();
+        return true;
+    }
+}
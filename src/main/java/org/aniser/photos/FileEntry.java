@@ -0,0 +1,21 @@
+package org.aniser.photos;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import lombok.Value;
+
+/**
+ * Regular file found by the {@link FileWalker} together with the attributes read in the same stat call.
+ */
+@Value
+public class FileEntry {
+    Path path;
+    long size;
+    long lastModified;
+    Object fileKey;
+
+    static FileEntry of(Path path, BasicFileAttributes attributes) {
+        return new FileEntry(path, attributes.size(), attributes.lastModifiedTime().toMillis(), attributes.fileKey());
+    }
+}
@@ -0,0 +1,128 @@
+package org.aniser.photos;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Lists regular files of a tree, every directory is visited by its own fork-join task so sibling directories are listed in parallel.
+ * Size and the other attributes come from the very same stat call the listing makes, symbolic links are not followed.
+ */
+@Slf4j
+public class FileWalker implements Closeable {
+
+    private final ForkJoinPool pool;
+
+    public FileWalker() {
+        this(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    public FileWalker(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public List<FileEntry> walk(Path path, Collection<Path> skipPaths) {
+        Queue<List<FileEntry>> listings = new ConcurrentLinkedQueue<>();
+        walkListings(path, skipPaths, listings::add);
+
+        // every directory listing is copied exactly once into the result, sorted once at the very end
+        List<FileEntry> files = new ArrayList<>(listings.stream().mapToInt(List::size).sum());
+        listings.forEach(files::addAll);
+        files.sort(Comparator.comparing(FileEntry::getPath));
+        log.debug(files.size() + " files listed and sorted under " + path.toAbsolutePath() + ".");
+        return files;
+    }
+
+    /**
+     * Passes every file to the consumer as soon as its directory is listed, in no particular order and never keeping a listing of the whole tree.
+     * The consumer is called by a single listing at a time, it needn't be thread-safe.
+     */
+    public void walk(Path path, Collection<Path> skipPaths, Consumer<FileEntry> consumer) {
+        Object lock = new Object();
+        walkListings(path, skipPaths, files -> {
+            synchronized (lock) {
+                files.forEach(consumer);
+            }
+        });
+    }
+
+    private void walkListings(Path path, Collection<Path> skipPaths, Consumer<List<FileEntry>> listings) {
+        if (skipPaths.contains(path)) {
+            log.warn("Skipping the path '" + path + "' as requested.");
+            return;
+        }
+        pool.invoke(new DirectoryTask(path, skipPaths, listings));
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private static class DirectoryTask extends RecursiveAction {
+
+        private final Path directory;
+        private final Collection<Path> skipPaths;
+        private final Consumer<List<FileEntry>> listings;
+
+        DirectoryTask(Path directory, Collection<Path> skipPaths, Consumer<List<FileEntry>> listings) {
+            this.directory = directory;
+            this.skipPaths = skipPaths;
+            this.listings = listings;
+        }
+
+        @Override
+        protected void compute() {
+            List<FileEntry> files = new ArrayList<>();
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            try {
+                Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        if (attributes.isRegularFile()) {
+                            files.add(FileEntry.of(file, attributes));
+                        } else if (attributes.isDirectory()) {
+                            if (skipPaths.contains(file)) {
+                                log.warn("Skipping the path '" + file + "' as requested.");
+                            } else {
+                                subdirectories.add(new DirectoryTask(file, skipPaths, listings));
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        log.warn("Path '" + file.toAbsolutePath() + "' couldn't be listed, skipping: " + e.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                log.warn("Path '" + directory.toAbsolutePath() + "' couldn't be listed, skipping: " + e.getMessage());
+            }
+            log.debug("Retrieving listing of '" + directory.toAbsolutePath() + "' with " + subdirectories.size() + " directories and " + files.size() + " files.");
+
+            if (!files.isEmpty()) {
+                listings.accept(files);
+            }
+            invokeAll(subdirectories);
+        }
+    }
+}
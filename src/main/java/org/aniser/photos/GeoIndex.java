@@ -0,0 +1,237 @@
+package org.aniser.photos;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Grid index over photo locations kept in primitive arrays. Every photo falls into a cell of {@code cellDegrees},
+ * entries are sorted by {@code (cell << 32 | entry)} so all cells of a grid row lie next to each other and a row of a query is a single binary search.
+ * Photos without a known location are never indexed.
+ */
+@Slf4j
+public class GeoIndex {
+
+    public static final int NOISE = -1;
+
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private final double cellDegrees;
+    private final int lonCells;
+    private final Path[] paths;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final long[] cellEntries;
+
+    public GeoIndex(List<PhotoMetadata> photos, double cellDegrees) {
+        List<PhotoMetadata> located = photos.stream()
+                .filter(photo -> photo.getGeoLocation().isPresent())
+                .collect(Collectors.toList());
+        this.cellDegrees = cellDegrees;
+        this.lonCells = (int) Math.ceil(360 / cellDegrees) + 1;
+        this.paths = new Path[located.size()];
+        this.latitudes = new double[located.size()];
+        this.longitudes = new double[located.size()];
+        this.cellEntries = new long[located.size()];
+        for (int i = 0; i < located.size(); i++) {
+            paths[i] = located.get(i).getPath();
+            latitudes[i] = located.get(i).getLatitude();
+            longitudes[i] = located.get(i).getLongitude();
+            cellEntries[i] = (cell(latitudes[i], longitudes[i]) << 32) | i;
+        }
+        Arrays.sort(cellEntries);
+        log.info("Geo index built over " + located.size() + " out of " + photos.size() + " photos, the others have no known location.");
+    }
+
+    public int size() {
+        return paths.length;
+    }
+
+    public Path getPath(int entry) {
+        return paths[entry];
+    }
+
+    /**
+     * Entries within the box, a box with {@code minLongitude > maxLongitude} crosses the antimeridian.
+     */
+    public int[] withinBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        IntCollector found = new IntCollector();
+        visitBox(minLatitude, minLongitude, maxLatitude, maxLongitude, entry -> {
+            if (latitudes[entry] >= minLatitude && latitudes[entry] <= maxLatitude && withinLongitudes(longitudes[entry], minLongitude, maxLongitude)) {
+                found.accept(entry);
+            }
+        });
+        return found.toArray();
+    }
+
+    public int[] withinRadius(double latitude, double longitude, double radiusKm) {
+        IntCollector found = new IntCollector();
+        visitRadius(latitude, longitude, radiusKm, found);
+        return found.toArray();
+    }
+
+    /**
+     * DBSCAN over the indexed photos, returns a cluster number for every entry or {@link #NOISE}.
+     */
+    public int[] cluster(double radiusKm, int minPhotos) {
+        int[] clusters = new int[paths.length];
+        Arrays.fill(clusters, Integer.MIN_VALUE);
+        // every entry is pushed at most once, it is labelled as it is pushed
+        int[] pending = new int[paths.length];
+        int cluster = 0;
+        for (int entry = 0; entry < paths.length; entry++) {
+            if (clusters[entry] != Integer.MIN_VALUE) {
+                continue;
+            }
+            int[] neighbours = withinRadius(latitudes[entry], longitudes[entry], radiusKm);
+            if (neighbours.length < minPhotos) {
+                clusters[entry] = NOISE;
+                continue;
+            }
+            clusters[entry] = cluster;
+            int top = push(clusters, pending, 0, neighbours, cluster);
+            while (top > 0) {
+                int neighbour = pending[--top];
+                int[] reachable = withinRadius(latitudes[neighbour], longitudes[neighbour], radiusKm);
+                if (reachable.length >= minPhotos) {
+                    top = push(clusters, pending, top, reachable, cluster);
+                }
+            }
+            cluster++;
+        }
+        log.info(cluster + " places found among " + paths.length + " located photos [radius " + radiusKm + " km, at least " + minPhotos + " photos].");
+        return clusters;
+    }
+
+    private static int push(int[] clusters, int[] pending, int top, int[] neighbours, int cluster) {
+        for (int neighbour : neighbours) {
+            if (clusters[neighbour] == NOISE) {
+                // a border photo of this cluster, it isn't expanded
+                clusters[neighbour] = cluster;
+            } else if (clusters[neighbour] == Integer.MIN_VALUE) {
+                clusters[neighbour] = cluster;
+                pending[top++] = neighbour;
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Writes {@code cluster,latitude,longitude,path} lines sorted by cluster, noise last.
+     */
+    public void export(int[] clusters, Path output) {
+        Integer[] order = new Integer[paths.length];
+        Arrays.setAll(order, entry -> entry);
+        Arrays.sort(order, (first, second) -> Integer.compareUnsigned(clusters[first], clusters[second]));
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write("cluster,latitude,longitude,path");
+            writer.newLine();
+            for (int entry : order) {
+                writer.write(clusters[entry] + "," + latitudes[entry] + "," + longitudes[entry] + ",\"" + paths[entry].toAbsolutePath().toString().replace("\"", "\"\"") + "\"");
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Places couldn't be exported to '" + output.toAbsolutePath() + "'!", e);
+        }
+        log.info("Places of " + paths.length + " photos exported to '" + output.toAbsolutePath() + "'.");
+    }
+
+    static double distanceKm(double latitude, double longitude, double otherLatitude, double otherLongitude) {
+        double latitudeDelta = Math.toRadians(otherLatitude - latitude);
+        double longitudeDelta = Math.toRadians(otherLongitude - longitude);
+        double a = Math.pow(Math.sin(latitudeDelta / 2), 2)
+                + Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(otherLatitude)) * Math.pow(Math.sin(longitudeDelta / 2), 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private void visitRadius(double latitude, double longitude, double radiusKm, IntConsumer consumer) {
+        double latitudeDelta = radiusKm / KM_PER_DEGREE;
+        double minLatitude = Math.max(-90, latitude - latitudeDelta);
+        double maxLatitude = Math.min(90, latitude + latitudeDelta);
+        double cosine = Math.cos(Math.toRadians(Math.max(Math.abs(minLatitude), Math.abs(maxLatitude))));
+        double longitudeDelta = cosine <= 0 ? 180 : radiusKm / (KM_PER_DEGREE * cosine);
+        IntConsumer withinRadius = entry -> {
+            if (distanceKm(latitude, longitude, latitudes[entry], longitudes[entry]) <= radiusKm) {
+                consumer.accept(entry);
+            }
+        };
+        if (longitudeDelta >= 180) {
+            visitBox(minLatitude, -180, maxLatitude, 180, withinRadius);
+        } else {
+            visitBox(minLatitude, normalize(longitude - longitudeDelta), maxLatitude, normalize(longitude + longitudeDelta), withinRadius);
+        }
+    }
+
+    private void visitBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, IntConsumer consumer) {
+        if (minLongitude > maxLongitude) {
+            visitBox(minLatitude, minLongitude, maxLatitude, 180, consumer);
+            visitBox(minLatitude, -180, maxLatitude, maxLongitude, consumer);
+            return;
+        }
+        int minRow = row(minLatitude);
+        int maxRow = row(maxLatitude);
+        int minColumn = column(minLongitude);
+        int maxColumn = column(maxLongitude);
+        for (int row = minRow; row <= maxRow; row++) {
+            long first = ((long) row * lonCells + minColumn) << 32;
+            long last = (((long) row * lonCells + maxColumn) << 32) | 0xFFFFFFFFL;
+            for (int position = lowerBound(first); position < cellEntries.length && cellEntries[position] <= last; position++) {
+                consumer.accept((int) cellEntries[position]);
+            }
+        }
+    }
+
+    private int lowerBound(long key) {
+        int position = Arrays.binarySearch(cellEntries, key);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    private long cell(double latitude, double longitude) {
+        return (long) row(latitude) * lonCells + column(longitude);
+    }
+
+    private int row(double latitude) {
+        return (int) Math.floor((Math.max(-90, Math.min(90, latitude)) + 90) / cellDegrees);
+    }
+
+    private int column(double longitude) {
+        return (int) Math.floor((Math.max(-180, Math.min(180, longitude)) + 180) / cellDegrees);
+    }
+
+    private static double normalize(double longitude) {
+        return longitude > 180 ? longitude - 360 : longitude < -180 ? longitude + 360 : longitude;
+    }
+
+    private static boolean withinLongitudes(double longitude, double minLongitude, double maxLongitude) {
+        return minLongitude <= maxLongitude
+                ? longitude >= minLongitude && longitude <= maxLongitude
+                : longitude >= minLongitude || longitude <= maxLongitude;
+    }
+
+    private static class IntCollector implements IntConsumer {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        @Override
+        public void accept(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
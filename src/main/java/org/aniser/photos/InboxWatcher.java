@@ -0,0 +1,327 @@
+package org.aniser.photos;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Long-running de-duplication of inbox folders against the originals. The originals are listed once into a size index kept in memory,
+ * their digests come from the {@link ContentHasher} which persists them when backed by a {@link DigestCatalog}. Afterwards only
+ * the files created or changed in the inboxes are checked, a file is checked once it has not changed for the debounce interval
+ * so files still being written are left alone. New originals are added to the index as they arrive, deleted or moved ones are dropped.
+ * The digests are flushed whenever the inboxes have settled and at least once a minute while files keep arriving.
+ */
+@Slf4j
+public class InboxWatcher implements Closeable {
+
+    public enum Policy {
+        REPORT, DELETE, HARDLINK, REFLINK
+    }
+
+    private final PhotoCompare photoCompare;
+    private final Path originalPath;
+    private final List<Path> inboxes;
+    private final Policy policy;
+    private final Path journalPath;
+    private final long debounceMillis;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private static final long FLUSH_INTERVAL_MILLIS = 60_000;
+
+    private final Map<Long, List<Path>> originalsBySize = new HashMap<>();
+    private final Map<Path, Long> originalSizes = new HashMap<>();
+    private final Map<Path, Pending> pending = new LinkedHashMap<>();
+    // last checked state of the inbox files, replacing a file by a link raises events the replacement must not be checked again for
+    private final Map<Path, Pending> checked = new HashMap<>();
+    private boolean digestsUnflushed = false;
+    private long lastFlush = System.currentTimeMillis();
+
+    public InboxWatcher(PhotoCompare photoCompare, Path originalPath, List<Path> inboxes, Policy policy, Path journalPath, long debounceMillis) {
+        this.photoCompare = photoCompare;
+        this.originalPath = originalPath.toAbsolutePath();
+        this.inboxes = inboxes.stream().map(Path::toAbsolutePath).collect(Collectors.toList());
+        this.policy = policy;
+        this.journalPath = journalPath;
+        this.debounceMillis = debounceMillis;
+        try {
+            this.watchService = this.originalPath.getFileSystem().newWatchService();
+            register(this.originalPath);
+            for (Path inbox : this.inboxes) {
+                register(inbox);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Inboxes " + inboxes + " couldn't be watched!", e);
+        }
+        photoCompare.getFilesRecursive(this.originalPath, this.inboxes).forEach(file -> indexOriginal(file.getPath(), file.getSize()));
+        log.info("Watching " + this.inboxes.size() + " inboxes against " + originalSizes.size() + " originals of '" + this.originalPath + "' [" + policy + "].");
+    }
+
+    /**
+     * Processes the events until the watcher is closed or the thread interrupted, the files already waiting in the inboxes are checked first.
+     */
+    public void run() {
+        for (Path inbox : inboxes) {
+            schedule(inbox);
+        }
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = pending.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(Math.max(1, nextDeadline() - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    handle(key);
+                }
+                checkSettled();
+                flushDigests();
+            }
+        } catch (ClosedWatchServiceException e) {
+            log.info("Watching of '" + originalPath + "' stopped.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("Watching of '" + originalPath + "' interrupted.");
+        }
+    }
+
+    /**
+     * Returns the match of a settled inbox file if an original has equal content.
+     */
+    Optional<Match> check(FileEntry file) {
+        List<Path> originals = originalsBySize.get(file.getSize());
+        if (originals == null || file.getSize() == 0) {
+            return Optional.empty();
+        }
+        List<FileEntry> readable = new ArrayList<>();
+        for (Path original : List.copyOf(originals)) {
+            try {
+                // the file key of the original tells the reads its device
+                readable.add(FileEntry.of(original, Files.readAttributes(original, BasicFileAttributes.class)));
+            } catch (IOException e) {
+                // gone before its event arrived, it must not fail the other originals of the size
+                log.warn("Original '" + original + "' can't be read anymore, it is dropped from the index.");
+                unindexOriginals(original);
+            }
+        }
+        if (readable.isEmpty()) {
+            return Optional.empty();
+        }
+        digestsUnflushed = true;
+        return Optional.ofNullable(photoCompare.matchOthersByContent(file.getSize(), readable, List.of(file)).get(file.getPath()));
+    }
+
+    @Override
+    public void close() {
+        if (digestsUnflushed) {
+            photoCompare.flushDigests();
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Watch service of '" + originalPath + "' couldn't be closed!", e);
+        }
+    }
+
+    private void handle(WatchKey key) {
+        Path directory = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                log.warn("Events of '" + directory + "' overflowed, rescanning it.");
+                schedule(directory);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                forget(directory.resolve((Path) event.context()));
+            } else {
+                Path path = directory.resolve((Path) event.context());
+                if (Files.isDirectory(path)) {
+                    try {
+                        register(path);
+                    } catch (IOException e) {
+                        log.warn("Directory '" + path + "' couldn't be watched: " + e);
+                    }
+                }
+                // files may have landed in a new directory before it was registered
+                schedule(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    private void register(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirectories.put(key, directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void schedule(Path path) {
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        // every further change postpones the check
+                        pending.put(file, new Pending(System.currentTimeMillis() + debounceMillis, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (NoSuchFileException e) {
+            pending.remove(path);
+        } catch (IOException e) {
+            log.warn("Path '" + path + "' couldn't be scheduled: " + e);
+        }
+    }
+
+    private void forget(Path path) {
+        // a deleted directory takes every file below it along
+        pending.keySet().removeIf(file -> file.startsWith(path));
+        checked.keySet().removeIf(file -> file.startsWith(path));
+        if (path.startsWith(originalPath) && inboxes.stream().noneMatch(path::startsWith)) {
+            unindexOriginals(path);
+        }
+    }
+
+    private void flushDigests() {
+        if (digestsUnflushed && (pending.isEmpty() || System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL_MILLIS)) {
+            photoCompare.flushDigests();
+            digestsUnflushed = false;
+            lastFlush = System.currentTimeMillis();
+        }
+    }
+
+    private long nextDeadline() {
+        return pending.values().stream().mapToLong(Pending::getDeadline).min().orElse(Long.MAX_VALUE);
+    }
+
+    private void checkSettled() {
+        long now = System.currentTimeMillis();
+        List<Match> matches = new ArrayList<>();
+        for (Iterator<Map.Entry<Path, Pending>> iterator = pending.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Path, Pending> entry = iterator.next();
+            if (entry.getValue().getDeadline() > now) {
+                continue;
+            }
+            Path file = entry.getKey();
+            Pending seen = entry.getValue();
+            FileEntry settled;
+            try {
+                settled = FileEntry.of(file, Files.readAttributes(file, BasicFileAttributes.class));
+                if (settled.getSize() != seen.getSize() || settled.getLastModified() != seen.getLastModified()) {
+                    // still being written without an event having arrived yet
+                    entry.setValue(new Pending(now + debounceMillis, settled.getSize(), settled.getLastModified()));
+                    continue;
+                }
+            } catch (IOException e) {
+                iterator.remove();
+                continue;
+            }
+            iterator.remove();
+            if (seen.isSameState(checked.get(file))) {
+                continue;
+            }
+            if (file.startsWith(originalPath) && inboxes.stream().noneMatch(file::startsWith)) {
+                indexOriginal(file, seen.getSize());
+                continue;
+            }
+            photoCompare.getMetrics().files("inbox", 1);
+            checked.put(file, seen);
+            try {
+                check(settled).ifPresentOrElse(matches::add, () -> log.debug("Inbox file '" + file + "' has no original."));
+            } catch (RuntimeException e) {
+                log.error("Inbox file '" + file + "' couldn't be checked: " + e);
+            }
+        }
+        if (!matches.isEmpty()) {
+            apply(matches);
+        }
+    }
+
+    private void apply(List<Match> matches) {
+        if (policy == Policy.REPORT) {
+            matches.forEach(match -> log.info("Inbox file '" + match.getPath() + "' duplicates original '" + match.getOriginal() + "'."));
+            return;
+        }
+        DeletionPlanner.Action action = DeletionPlanner.Action.valueOf(policy.name());
+        photoCompare.getMetrics().time(DedupMetrics.Phase.DELETION, () -> new DeletionPlanner(action, inboxes, journalPath).execute(matches));
+        for (Match match : matches) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(match.getPath(), BasicFileAttributes.class);
+                checked.put(match.getPath(), new Pending(0, attributes.size(), attributes.lastModifiedTime().toMillis()));
+            } catch (IOException e) {
+                checked.remove(match.getPath());
+            }
+        }
+    }
+
+    private void indexOriginal(Path path, long size) {
+        Long previousSize = originalSizes.put(path, size);
+        if (previousSize != null && previousSize == size) {
+            return;
+        }
+        if (previousSize != null) {
+            removeOriginal(path, previousSize);
+        }
+        originalsBySize.computeIfAbsent(size, any -> new ArrayList<>(1)).add(path);
+    }
+
+    private void unindexOriginals(Path path) {
+        for (Iterator<Map.Entry<Path, Long>> iterator = originalSizes.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Path, Long> original = iterator.next();
+            if (original.getKey().startsWith(path)) {
+                iterator.remove();
+                removeOriginal(original.getKey(), original.getValue());
+            }
+        }
+    }
+
+    private void removeOriginal(Path path, long size) {
+        List<Path> originals = originalsBySize.get(size);
+        if (originals != null) {
+            originals.remove(path);
+            if (originals.isEmpty()) {
+                originalsBySize.remove(size);
+            }
+        }
+    }
+
+    @Value
+    private static class Pending {
+        long deadline;
+        long size;
+        long lastModified;
+
+        boolean isSameState(Pending other) {
+            return other != null && size == other.size && lastModified == other.lastModified;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.aniser.photos;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs the reads of files on the device they are stored on. Every device gets a queue and a pool of its own, a rotational disk
+ * a small one, so a slow archive disk doesn't thrash while a fast inbox is kept busy. Pending reads of a device are taken in the
+ * order of their inodes, which approximates the physical layout far better than the order of the paths.
+ */
+@Slf4j
+public class IoScheduler implements Closeable {
+
+    // a Unix file key reads (dev=803,ino=1234)
+    private static final Pattern UNIX_FILE_KEY = Pattern.compile("dev=(\\w+),ino=(\\d+)");
+
+    private final int solidStateConcurrency;
+    private final int rotationalConcurrency;
+    private final Map<String, Device> devices = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public IoScheduler(int solidStateConcurrency, int rotationalConcurrency) {
+        this.solidStateConcurrency = Math.max(1, solidStateConcurrency);
+        this.rotationalConcurrency = Math.max(1, rotationalConcurrency);
+    }
+
+    /**
+     * Queues the read of a listed file on its device, the device and the inode come from the file key the walker already read.
+     */
+    public <T> CompletableFuture<T> submit(FileEntry file, Supplier<T> read) {
+        Matcher matcher = UNIX_FILE_KEY.matcher(String.valueOf(file.getFileKey()));
+        if (matcher.find()) {
+            return submit(matcher.group(1), Long.parseLong(matcher.group(2)), file.getPath(), read);
+        }
+        try {
+            return submit(Files.getFileStore(file.getPath()).name(), Long.MAX_VALUE, file.getPath(), read);
+        } catch (IOException e) {
+            // the read itself reports the file, it goes to the queue of the unknown device
+            return submit("", Long.MAX_VALUE, file.getPath(), read);
+        }
+    }
+
+    /**
+     * Queues the read of a file nobody listed, its file key is read first.
+     */
+    public <T> CompletableFuture<T> submit(Path path, Supplier<T> read) {
+        try {
+            return submit(FileEntry.of(path, Files.readAttributes(path, BasicFileAttributes.class)), read);
+        } catch (IOException e) {
+            return submit("", Long.MAX_VALUE, path, read);
+        }
+    }
+
+    /**
+     * Queues the read on the scheduler if there is one, runs it on the calling thread otherwise.
+     */
+    static <T> CompletableFuture<T> schedule(IoScheduler ioScheduler, FileEntry file, Supplier<T> read) {
+        return ioScheduler == null ? CompletableFuture.completedFuture(read.get()) : ioScheduler.submit(file, read);
+    }
+
+    private <T> CompletableFuture<T> submit(String deviceId, long inode, Path path, Supplier<T> read) {
+        Device device = devices.computeIfAbsent(deviceId, id -> new Device(id, path));
+        PendingRead<T> pendingRead = new PendingRead<>(inode, sequence.getAndIncrement(), read);
+        device.queue.add(pendingRead);
+        // every task runs the read pending with the lowest inode at the very time, not the one submitted
+        device.executor.execute(device::runNext);
+        return pendingRead.result;
+    }
+
+    @Override
+    public void close() {
+        devices.values().forEach(device -> device.executor.shutdownNow());
+        devices.clear();
+    }
+
+    static boolean isRotational(FileStore store) {
+        // Linux only, a partition like /dev/sda1 has the queue of its disk /sys/class/block/sda one level up
+        try {
+            if (!store.name().startsWith("/dev/")) {
+                return false;
+            }
+            Path block = Path.of("/sys/class/block", Path.of(store.name()).toRealPath().getFileName().toString());
+            Path rotational = block.resolve("queue/rotational");
+            if (!Files.exists(rotational)) {
+                rotational = block.toRealPath().getParent().resolve("queue/rotational");
+            }
+            return Files.readString(rotational).trim().equals("1");
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private class Device {
+        private final PriorityBlockingQueue<PendingRead<?>> queue = new PriorityBlockingQueue<>();
+        private final ThreadPoolExecutor executor;
+
+        Device(String id, Path path) {
+            boolean rotational;
+            String name;
+            try {
+                FileStore store = Files.getFileStore(path);
+                rotational = isRotational(store);
+                name = store.name() + " [" + store + "]";
+            } catch (IOException e) {
+                rotational = false;
+                name = id;
+            }
+            int concurrency = rotational ? rotationalConcurrency : solidStateConcurrency;
+            this.executor = new ThreadPoolExecutor(concurrency, concurrency, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    PhotoCompare.daemonThreads("io-" + (id.isEmpty() ? "unknown" : id)));
+            // the threads of a device nothing is read from anymore end
+            executor.allowCoreThreadTimeOut(true);
+            log.info("Reads of device " + name + " scheduled " + concurrency + " at a time" + (rotational ? ", it is rotational." : "."));
+        }
+
+        void runNext() {
+            PendingRead<?> next = queue.poll();
+            if (next != null) {
+                next.run();
+            }
+        }
+    }
+
+    private static class PendingRead<T> implements Comparable<PendingRead<?>> {
+        private final long inode;
+        private final long sequence;
+        private final Supplier<T> read;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        PendingRead(long inode, long sequence, Supplier<T> read) {
+            this.inode = inode;
+            this.sequence = sequence;
+            this.read = read;
+        }
+
+        void run() {
+            try {
+                result.complete(read.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public int compareTo(PendingRead<?> other) {
+            int byInode = Long.compare(inode, other.inode);
+            return byInode != 0 ? byInode : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Walks the segments of a JPEG and feeds a digest with the image data only: quantization and Huffman tables, the frame and scan
+ * headers and the entropy-coded scans. Application segments (EXIF, XMP, ICC, embedded thumbnails) and comments are skipped
+ * by their length without being read, so copies a photo manager rewrote the metadata of share the digest.
+ */
+public final class JpegPayload {
+
+    private static final int MARKER = 0xFF;
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int COM = 0xFE;
+    private static final int TEM = 0x01;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> CHUNKS = ThreadLocal.withInitial(() -> ByteBuffer.allocate(CHUNK_SIZE));
+
+    private JpegPayload() {
+    }
+
+    /**
+     * Feeds the digest with the image data, at most {@code entropyLimit} bytes of the scans. Returns {@code false} when the file isn't
+     * a well-formed JPEG, the digest is then to be discarded.
+     */
+    public static boolean update(MessageDigest digest, FileChannel channel, long entropyLimit) throws IOException {
+        return new Parser(digest, channel, entropyLimit).parse();
+    }
+
+    private static class Parser {
+        private final MessageDigest digest;
+        private final FileChannel channel;
+        private final long size;
+        private final ByteBuffer chunk = CHUNKS.get();
+        private long entropyLeft;
+
+        Parser(MessageDigest digest, FileChannel channel, long entropyLimit) throws IOException {
+            this.digest = digest;
+            this.channel = channel;
+            this.size = channel.size();
+            this.entropyLeft = entropyLimit;
+        }
+
+        boolean parse() throws IOException {
+            if (byteAt(0) != MARKER || byteAt(1) != SOI) {
+                return false;
+            }
+            long position = 2;
+            while (position < size) {
+                if (byteAt(position) != MARKER) {
+                    return false;
+                }
+                int marker;
+                do {
+                    // fill bytes may precede any marker
+                    marker = byteAt(++position);
+                } while (marker == MARKER);
+                position++;
+                if (marker < 0) {
+                    return false;
+                }
+                if (marker == EOI) {
+                    updateMarker(marker);
+                    return true;
+                }
+                if (marker == TEM || (marker >= 0xD0 && marker <= 0xD7)) {
+                    updateMarker(marker);
+                    continue;
+                }
+                int high = byteAt(position);
+                int low = byteAt(position + 1);
+                int length = (high << 8) | low;
+                if (high < 0 || low < 0 || length < 2 || position + length > size) {
+                    return false;
+                }
+                if ((marker >= 0xE0 && marker <= 0xEF) || marker == COM) {
+                    position += length;
+                    continue;
+                }
+                updateMarker(marker);
+                FileChannels.update(digest, channel, position, length);
+                position += length;
+                if (marker == SOS) {
+                    position = updateEntropy(position);
+                    if (position < 0) {
+                        // either the limit is reached or the scan is truncated
+                        return entropyLeft <= 0;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Feeds the entropy-coded data up to the next marker and returns its position, {@code -1} when the limit or the end of the file comes first.
+         */
+        private long updateEntropy(long position) throws IOException {
+            while (position < size) {
+                int read = read(position, (int) Math.min(CHUNK_SIZE, size - position));
+                byte[] bytes = chunk.array();
+                int consumed = read;
+                for (int i = 0; i < read; i++) {
+                    if ((bytes[i] & 0xFF) != MARKER) {
+                        continue;
+                    }
+                    if (i + 1 == read) {
+                        // the byte after might be in the next chunk
+                        consumed = i;
+                        break;
+                    }
+                    int next = bytes[i + 1] & 0xFF;
+                    if (next == 0x00 || (next >= 0xD0 && next <= 0xD7)) {
+                        // a stuffed byte or a restart marker, both part of the scan
+                        i++;
+                        continue;
+                    }
+                    return feed(bytes, i) ? position + i : -1;
+                }
+                if (consumed == 0) {
+                    return -1;
+                }
+                if (!feed(bytes, consumed)) {
+                    return -1;
+                }
+                position += consumed;
+            }
+            return -1;
+        }
+
+        private boolean feed(byte[] bytes, int length) {
+            int fed = (int) Math.min(length, entropyLeft);
+            digest.update(bytes, 0, fed);
+            entropyLeft -= fed;
+            return entropyLeft > 0;
+        }
+
+        private void updateMarker(int marker) {
+            digest.update((byte) MARKER);
+            digest.update((byte) marker);
+        }
+
+        private int byteAt(long position) throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            return read(position, 1) < 1 ? -1 : chunk.get(0) & 0xFF;
+        }
+
+        private int read(long position, int length) throws IOException {
+            chunk.clear();
+            chunk.limit(length);
+            while (chunk.hasRemaining()) {
+                int read = FileChannels.read(channel, chunk, position + chunk.position());
+                if (read < 0) {
+                    break;
+                }
+            }
+            return chunk.position();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.aniser.photos;
+
+import java.nio.file.Path;
+
+import lombok.Value;
+
+/**
+ * Other file selected by an operation together with the original it was found equal or similar to.
+ * The original is {@code null} when the file was selected for having none or its original is archived in an {@link ArchiveDigest},
+ * the digest when no full content digest was needed.
+ */
+@Value
+public class Match {
+    Path path;
+    Path original;
+    long size;
+    String digest;
+
+    static Match unmatched(Path path, long size) {
+        return new Match(path, null, size, null);
+    }
+}
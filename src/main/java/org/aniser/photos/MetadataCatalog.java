@@ -0,0 +1,133 @@
+package org.aniser.photos;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only cache of {@link PhotoMetadata} keyed by absolute path, an entry is valid while size and modification time stay the same.
+ * <p>
+ * Every line is {@code size \t mtime \t latitude \t longitude \t captureTime \t camera \t width \t height \t failure \t absolutePath},
+ * later lines win over earlier ones for the same path.
+ */
+@Slf4j
+public class MetadataCatalog implements Closeable {
+
+    private static final String SEPARATOR = "\t";
+    private static final String NONE = "-";
+    private static final int COLUMNS = 10;
+
+    private final Path catalogPath;
+    private final Map<Path, PhotoMetadata> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong(0);
+    private BufferedWriter writer;
+
+    private MetadataCatalog(Path catalogPath) {
+        this.catalogPath = catalogPath;
+    }
+
+    public static MetadataCatalog open(Path catalogPath) {
+        MetadataCatalog catalog = new MetadataCatalog(catalogPath.toAbsolutePath());
+        try {
+            Files.createDirectories(catalog.catalogPath.getParent());
+            catalog.load();
+            catalog.writer = Files.newBufferedWriter(catalog.catalogPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Metadata catalog '" + catalog.catalogPath + "' couldn't be opened!", e);
+        }
+        log.info("Metadata catalog '" + catalog.catalogPath + "' opened with " + catalog.entries.size() + " entries.");
+        return catalog;
+    }
+
+    public Optional<PhotoMetadata> lookup(FileEntry file) {
+        PhotoMetadata cached = entries.get(file.getPath().toAbsolutePath());
+        if (cached == null || cached.getSize() != file.getSize() || cached.getLastModified() != file.getLastModified()) {
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        // the caller's path form wins over the absolute one the catalog keys with
+        return Optional.of(new PhotoMetadata(file.getPath(), cached.getSize(), cached.getLastModified(), cached.getLatitude(), cached.getLongitude(),
+                cached.getCaptureTime(), cached.getCamera(), cached.getWidth(), cached.getHeight(), cached.getFailure()));
+    }
+
+    public synchronized void store(PhotoMetadata metadata) {
+        Path key = metadata.getPath().toAbsolutePath();
+        entries.put(key, metadata);
+        try {
+            writer.write(String.join(SEPARATOR,
+                    String.valueOf(metadata.getSize()),
+                    String.valueOf(metadata.getLastModified()),
+                    String.valueOf(metadata.getLatitude()),
+                    String.valueOf(metadata.getLongitude()),
+                    orNone(metadata.getCaptureTime()),
+                    orNone(metadata.getCamera()),
+                    orNone(metadata.getWidth()),
+                    orNone(metadata.getHeight()),
+                    orNone(metadata.getFailure()),
+                    key.toString()) + System.lineSeparator());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Metadata catalog '" + catalogPath + "' couldn't be written!", e);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    private void load() throws IOException {
+        if (!Files.isRegularFile(catalogPath)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(catalogPath, StandardCharsets.UTF_8);
+        lines.forEach(line -> {
+            String[] columns = line.split(SEPARATOR, COLUMNS);
+            if (columns.length < COLUMNS) {
+                log.warn("Skipping a malformed metadata catalog line '" + line + "'.");
+                return;
+            }
+            try {
+                Path path = Path.of(columns[9]);
+                entries.put(path, new PhotoMetadata(path, Long.parseLong(columns[0]), Long.parseLong(columns[1]),
+                        Double.parseDouble(columns[2]), Double.parseDouble(columns[3]),
+                        NONE.equals(columns[4]) ? null : Long.valueOf(columns[4]),
+                        valueOf(columns[5]),
+                        NONE.equals(columns[6]) ? null : Integer.valueOf(columns[6]),
+                        NONE.equals(columns[7]) ? null : Integer.valueOf(columns[7]),
+                        valueOf(columns[8])));
+            } catch (IllegalArgumentException e) {
+                log.warn("Skipping a malformed metadata catalog line '" + line + "'.");
+            }
+        });
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Metadata catalog '" + catalogPath + "' couldn't be closed!", e);
+        }
+        log.info("Metadata catalog '" + catalogPath + "' closed, " + hits.get() + " entries reused.");
+    }
+
+    private static String orNone(Object value) {
+        // free text must not break the line format
+        return value == null ? NONE : value.toString().replaceAll("[\\t\\r\\n]", " ");
+    }
+
+    private static String valueOf(String column) {
+        return NONE.equals(column) ? null : column;
+    }
+}
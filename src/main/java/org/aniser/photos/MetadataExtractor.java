@@ -0,0 +1,109 @@
+package org.aniser.photos;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import com.drew.imaging.FileType;
+import com.drew.imaging.FileTypeDetector;
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.ImageProcessingException;
+import com.drew.imaging.jpeg.JpegMetadataReader;
+import com.drew.imaging.jpeg.JpegSegmentMetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifReader;
+import com.drew.metadata.jpeg.JpegReader;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Extracts {@link PhotoMetadata} of every file of a tree on a bounded pool, a file failing is recorded as a result and never stops the others.
+ * JPEGs are read only up to the start of the scan and only the EXIF and frame segments are parsed. Only metadata that was read
+ * or couldn't be parsed is stored in the catalog, a file that couldn't be read is tried again by the next run.
+ */
+@Slf4j
+public class MetadataExtractor implements Closeable {
+
+    private static final int HEADER_BUFFER_SIZE = 64 * 1024;
+    private static final List<JpegSegmentMetadataReader> JPEG_HEADER_READERS = List.of(new ExifReader(), new JpegReader());
+
+    private final FileWalker fileWalker = new FileWalker();
+    private final MetadataCatalog catalog;
+    private final int concurrency;
+
+    public MetadataExtractor(MetadataCatalog catalog, int concurrency) {
+        this.catalog = catalog;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Metadata of every regular file under the root, in the order of their paths.
+     */
+    public List<PhotoMetadata> extract(Path root) {
+        List<FileEntry> files = fileWalker.walk(root, List.of());
+        log.info("Extracting metadata of " + files.size() + " files under '" + root.toAbsolutePath() + "'.");
+
+        Progress progress = new Progress("files", files.size(), Math.max(1, files.size() / 100));
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, PhotoCompare.daemonThreads("metadata"));
+        try {
+            List<CompletableFuture<PhotoMetadata>> extractions = files.stream()
+                    .map(file -> CompletableFuture.supplyAsync(() -> {
+                        PhotoMetadata metadata = extract(file);
+                        progress.completed(1);
+                        return metadata;
+                    }, executor))
+                    .collect(Collectors.toList());
+            return extractions.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    PhotoMetadata extract(FileEntry file) {
+        Optional<PhotoMetadata> cached = catalog == null ? Optional.empty() : catalog.lookup(file);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        try {
+            PhotoMetadata metadata = read(file);
+            if (catalog != null) {
+                catalog.store(metadata);
+            }
+            return metadata;
+        } catch (IOException e) {
+            log.warn("File '" + file.getPath().toAbsolutePath() + "' couldn't be read for its metadata: " + e);
+            return PhotoMetadata.failed(file, e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fails only when the file couldn't be read, metadata that couldn't be parsed is returned as a failed result.
+     */
+    static PhotoMetadata read(FileEntry file) throws IOException {
+        try (BufferedInputStream input = new BufferedInputStream(Files.newInputStream(file.getPath()), HEADER_BUFFER_SIZE)) {
+            FileType fileType = FileTypeDetector.detectFileType(input);
+            Metadata metadata = fileType == FileType.Jpeg
+                    ? JpegMetadataReader.readMetadata(input, JPEG_HEADER_READERS)
+                    : ImageMetadataReader.readMetadata(input, file.getSize(), fileType);
+            return PhotoMetadata.of(file, metadata);
+        } catch (EOFException | ImageProcessingException | RuntimeException e) {
+            // the content ends early or isn't well-formed, unlike a file that couldn't be read
+            log.debug("Metadata of '" + file.getPath().toAbsolutePath() + "' couldn't be parsed: " + e);
+            return PhotoMetadata.failed(file, e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        fileWalker.close();
+    }
+}
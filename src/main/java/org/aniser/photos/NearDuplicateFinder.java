@@ -0,0 +1,88 @@
+package org.aniser.photos;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Finds other files looking like an original although their bytes differ, e.g. resized, re-encoded or EXIF-stripped copies.
+ * Perceptual hashes of the originals are indexed in a {@link BkTree}, every other file is a single tree query instead of a comparison with all originals.
+ */
+@Slf4j
+public class NearDuplicateFinder {
+
+    private final ContentHasher contentHasher;
+    private final int threshold;
+    private final int concurrency;
+    private final IoScheduler ioScheduler;
+
+    public NearDuplicateFinder(ContentHasher contentHasher, int threshold, int concurrency) {
+        this(contentHasher, threshold, concurrency, null);
+    }
+
+    /**
+     * Reads through the {@code ioScheduler} unless it is null.
+     */
+    public NearDuplicateFinder(ContentHasher contentHasher, int threshold, int concurrency, IoScheduler ioScheduler) {
+        this.contentHasher = contentHasher;
+        this.threshold = threshold;
+        this.concurrency = Math.max(1, concurrency);
+        this.ioScheduler = ioScheduler;
+    }
+
+    public List<Match> find(List<FileEntry> originalFiles, List<FileEntry> otherFiles) {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, PhotoCompare.daemonThreads("perceptual"));
+        try {
+            List<CompletableFuture<OptionalLong>> originalHashes = hashAll(originalFiles, executor);
+            BkTree<Path> index = new BkTree<>();
+            for (int i = 0; i < originalFiles.size(); i++) {
+                OptionalLong hash = originalHashes.get(i).join();
+                if (hash.isPresent()) {
+                    index.add(hash.getAsLong(), originalFiles.get(i).getPath());
+                }
+            }
+            log.info("Perceptual hashes of " + index.size() + " out of " + originalFiles.size() + " original files indexed, searching within " + threshold + " bits.");
+
+            Progress progress = new Progress("images", otherFiles.size(), Math.max(1, otherFiles.size() / 100));
+            List<CompletableFuture<Match>> matches = otherFiles.stream()
+                    .map(file -> CompletableFuture.supplyAsync(() -> {
+                        OptionalLong hash = perceptualHash(file);
+                        progress.completed(1);
+                        if (hash.isEmpty()) {
+                            return null;
+                        }
+                        List<Path> similar = index.search(hash.getAsLong(), threshold);
+                        if (similar.isEmpty()) {
+                            return null;
+                        }
+                        log.info(String.format("%50s", file.getPath().toAbsolutePath()) + " looks like original " + similar.get(0).toAbsolutePath());
+                        return new Match(file.getPath(), similar.get(0), file.getSize(), null);
+                    }, executor))
+                    .collect(Collectors.toList());
+
+            return matches.stream()
+                    .map(CompletableFuture::join)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<CompletableFuture<OptionalLong>> hashAll(List<FileEntry> files, ExecutorService executor) {
+        return files.stream()
+                .map(file -> CompletableFuture.supplyAsync(() -> perceptualHash(file), executor))
+                .collect(Collectors.toList());
+    }
+
+    private OptionalLong perceptualHash(FileEntry file) {
+        return PhotoCompare.join(IoScheduler.schedule(ioScheduler, file, () -> contentHasher.perceptualHash(file)));
+    }
+}
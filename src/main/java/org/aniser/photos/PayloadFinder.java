@@ -0,0 +1,110 @@
+package org.aniser.photos;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Finds other files whose image data equals an original although their sizes and metadata differ. JPEGs are grouped by the digest
+ * of the first scan bytes, only those sharing it get the digest of the whole image data. Any other file falls back to the byte-exact
+ * path, grouped by its size first and then by its content digests.
+ */
+@Slf4j
+public class PayloadFinder {
+
+    private static final String JPEG = "jpeg ";
+    private static final String SIZE = "size ";
+
+    private final ContentHasher contentHasher;
+    private final int concurrency;
+    private final IoScheduler ioScheduler;
+    private final Map<Path, String> fullKeys = new ConcurrentHashMap<>();
+
+    public PayloadFinder(ContentHasher contentHasher, int concurrency) {
+        this(contentHasher, concurrency, null);
+    }
+
+    /**
+     * Reads through the {@code ioScheduler} unless it is null.
+     */
+    public PayloadFinder(ContentHasher contentHasher, int concurrency, IoScheduler ioScheduler) {
+        this.contentHasher = contentHasher;
+        this.concurrency = Math.max(1, concurrency);
+        this.ioScheduler = ioScheduler;
+    }
+
+    public List<Match> find(List<FileEntry> allOriginalFiles, List<FileEntry> allOtherFiles) {
+        List<FileEntry> originalFiles = allOriginalFiles.stream().filter(PhotoCompare::isCandidate).collect(Collectors.toList());
+        List<FileEntry> otherFiles = allOtherFiles.stream().filter(PhotoCompare::isCandidate).collect(Collectors.toList());
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, PhotoCompare.daemonThreads("payload"));
+        try {
+            List<CompletableFuture<String>> originalKeys = originalFiles.stream()
+                    .map(file -> CompletableFuture.supplyAsync(() -> partialKey(file), executor))
+                    .collect(Collectors.toList());
+            Map<String, List<FileEntry>> originalsByPartial = new HashMap<>();
+            for (int i = 0; i < originalFiles.size(); i++) {
+                originalsByPartial.computeIfAbsent(PhotoCompare.join(originalKeys.get(i)), key -> new ArrayList<>()).add(originalFiles.get(i));
+            }
+            log.info("Image data of " + originalsByPartial.keySet().stream().filter(key -> key.startsWith(JPEG)).count() + " distinct JPEG samples indexed among " + originalFiles.size() + " original files.");
+
+            Progress progress = new Progress("files", otherFiles.size(), Math.max(1, otherFiles.size() / 100));
+            List<CompletableFuture<Match>> matches = otherFiles.stream()
+                    .map(file -> CompletableFuture.supplyAsync(() -> {
+                        Match match = match(file, originalsByPartial.get(partialKey(file)));
+                        progress.completed(1);
+                        return match;
+                    }, executor))
+                    .collect(Collectors.toList());
+            return matches.stream()
+                    .map(PhotoCompare::join)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Match match(FileEntry file, List<FileEntry> candidates) {
+        if (candidates == null) {
+            return null;
+        }
+        String key = fullKey(file);
+        for (FileEntry original : candidates) {
+            if (original.getPath().equals(file.getPath()) || !key.equals(fullKey(original))) {
+                continue;
+            }
+            log.info(String.format("%50s", file.getPath().toAbsolutePath()) + " shares the image data of original " + original.getPath().toAbsolutePath());
+            return new Match(file.getPath(), original.getPath(), file.getSize(), key.substring(key.lastIndexOf(' ') + 1));
+        }
+        return null;
+    }
+
+    private String partialKey(FileEntry file) {
+        Optional<String> payload = PhotoCompare.join(IoScheduler.schedule(ioScheduler, file, () -> contentHasher.partialPayloadDigest(file.getPath())));
+        return payload.map(digest -> JPEG + digest).orElse(SIZE + file.getSize());
+    }
+
+    private String fullKey(FileEntry file) {
+        // the originals are candidates of many other files, each of them is digested only once
+        String key = fullKeys.get(file.getPath());
+        if (key == null) {
+            Path path = file.getPath();
+            key = PhotoCompare.join(IoScheduler.schedule(ioScheduler, file, () -> contentHasher.payloadDigest(path)
+                    .map(digest -> JPEG + digest)
+                    .orElseGet(() -> SIZE + file.getSize() + " " + (ContentHasher.sampleCoversFile(file.getSize()) ? contentHasher.partialDigest(file) : contentHasher.fullDigest(file)))));
+            fullKeys.putIfAbsent(path, key);
+        }
+        return key;
+    }
+}
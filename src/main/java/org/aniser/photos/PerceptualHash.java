@@ -0,0 +1,101 @@
+package org.aniser.photos;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.OptionalLong;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 64 bit difference hash (dHash) of an image, resized, re-encoded and EXIF-stripped copies differ only in a few bits.
+ * The image is decoded subsampled to a thumbnail, the full resolution is never held in memory.
+ */
+@Slf4j
+public final class PerceptualHash {
+
+    public static final int DEFAULT_THRESHOLD = 8;
+
+    private static final int WIDTH = 9;
+    private static final int HEIGHT = 8;
+    private static final int THUMBNAIL_SIZE = 64;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Empty when the file isn't an image any of the installed ImageIO readers understands.
+     */
+    public static OptionalLong dHash(Path path) {
+        try {
+            return decode(path);
+        } catch (IOException e) {
+            log.warn("Image '" + path.toAbsolutePath() + "' couldn't be read for a perceptual hash: " + e);
+            return OptionalLong.empty();
+        }
+    }
+
+    /**
+     * Same as {@link #dHash(Path)} but a file that couldn't be read at all fails, empty is left for files that are no decodable image.
+     */
+    static OptionalLong decode(Path path) throws IOException {
+        try (ImageInputStream input = new FileImageInputStream(path.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return OptionalLong.empty();
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int step = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / THUMBNAIL_SIZE);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return OptionalLong.of(dHash(reader.read(0, param)));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IIOException | RuntimeException e) {
+            // the content isn't a well-formed image, unlike a file that couldn't be read
+            log.warn("Image '" + path.toAbsolutePath() + "' couldn't be decoded for a perceptual hash: " + e.getMessage());
+            return OptionalLong.empty();
+        }
+    }
+
+    static long dHash(BufferedImage image) {
+        BufferedImage gray = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = gray.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, WIDTH, HEIGHT, null);
+        } finally {
+            graphics.dispose();
+        }
+        byte[] pixels = new byte[WIDTH * HEIGHT];
+        gray.getRaster().getDataElements(0, 0, WIDTH, HEIGHT, pixels);
+
+        long hash = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH - 1; x++) {
+                hash <<= 1;
+                if ((pixels[y * WIDTH + x] & 0xFF) < (pixels[y * WIDTH + x + 1] & 0xFF)) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    public static int distance(long first, long second) {
+        return Long.bitCount(first ^ second);
+    }
+}
@@ -1,75 +1,129 @@
 package org.aniser.photos;
 
-import java.io.File;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import org.apache.commons.io.FileUtils;
 import org.springframework.stereotype.Component;
 
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 @Component
-public class PhotoCompare {
+public class PhotoCompare implements Closeable {
 
-    private final Map<Path, List<File>> originalPathFiles = new HashMap<>();
+    private static final int CHECKPOINT_INTERVAL = 256;
+    private static final int ORIGINAL_ROOT = 0;
+    private static final int OTHER_ROOT = 1;
 
-    public static boolean fileAreEqual(Path originalPath, Path otherPath) {
-        File original = originalPath.toFile();
-        File other = otherPath.toFile();
+    private final FileWalker fileWalker = new FileWalker();
 
-        if (!original.exists() || !other.exists()) {
-            String message = "File 'original' or 'other' does not exist " + originalPath.toAbsolutePath() + ", " + otherPath.toAbsolutePath();
-            log.error(message);
-            throw new UncheckedIOException(new IOException(message));
-        }
+    @Setter
+    private ContentHasher contentHasher = new ContentHasher();
+
+    @Getter
+    private DedupMetrics metrics;
+
+    public PhotoCompare() {
+        setMetrics(new DedupMetrics());
+    }
+
+    public void setMetrics(DedupMetrics metrics) {
+        this.metrics = metrics;
+        metrics.bindCache(this, photoCompare -> photoCompare.contentHasher.getHits(), photoCompare -> photoCompare.contentHasher.getMisses());
+    }
+
+    @Setter
+    private boolean verifyCollisions = false;
 
+    // file entries the size grouping keeps in memory, the others are spilled to sorted runs on disk
+    @Setter
+    private int catalogEntriesInMemory = Integer.MAX_VALUE;
+
+    // go through every group instead of the first n*128 ones
+    @Setter
+    private boolean fullCoverage = false;
+
+    // confirmed groups are recorded there, an interrupted run continues from it
+    @Setter
+    private Path checkpointPath;
+
+    // confirmed groups are streamed there as they resolve
+    @Setter
+    private ReportWriter reportWriter;
+
+    // perceptual hashes differing in at most this many bits are near duplicates
+    @Setter
+    private int nearDuplicateThreshold = PerceptualHash.DEFAULT_THRESHOLD;
+
+    // number of size groups confirmed at the same time, raise for SSDs and network mounts
+    @Setter
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+
+    // reads of the digests are queued per device, without it they run on the thread confirming the group
+    @Setter
+    private IoScheduler ioScheduler;
+
+    // prompts are logged in the interactive mode only, the headless commands ask for nothing
+    @Getter
+    @Setter
+    private boolean interactive = true;
+
+    public static boolean fileAreEqual(Path originalPath, Path otherPath) {
         try {
-            return FileUtils.contentEquals(original, other);
+            return FileChannels.contentEquals(originalPath, otherPath);
+        } catch (NoSuchFileException e) {
+            String message = "File 'original' or 'other' does not exist " + originalPath.toAbsolutePath() + ", " + otherPath.toAbsolutePath();
+            log.error(message);
+            throw new UncheckedIOException(new IOException(message, e));
         } catch (IOException e) {
-            throw new IllegalStateException("Files " + original.getAbsolutePath() + " and " + other.getAbsolutePath() + " couldn't be compared!");
+            throw new IllegalStateException("Files " + originalPath.toAbsolutePath() + " and " + otherPath.toAbsolutePath() + " couldn't be compared!");
         }
     }
 
 
     public enum OPERATIONS {
-        DUPLICATE((originals, suggestedDuplicate) -> {
-            log.debug("Suggested duplicate " + suggestedDuplicate.toAbsolutePath());
-            return originals.stream().anyMatch(file -> {
-                boolean pathsDiffer = file.toAbsolutePath().compareTo(suggestedDuplicate.toAbsolutePath()) != 0;
-                if (!pathsDiffer) {
-                    log.warn("Paths of file '" + file.toAbsolutePath() + "' and '" + suggestedDuplicate.toAbsolutePath() + "' should differ, this might be a serious issue!");
-                }
-                if (pathsDiffer && fileAreEqual(file, suggestedDuplicate)) {
-                    log.info(String.format("%50s", suggestedDuplicate.toAbsolutePath()) + " duplicates original " + file.toAbsolutePath() + "\r");
-                    return true;
-                }
-                return false;
-            });
-        }),
+        // other files having a byte-identical original
+        DUPLICATE(true),
 
-        ORIGINALS((originals, suggestedOriginal) -> {
-            log.debug("Suggested originals " + suggestedOriginal.toAbsolutePath());
-            return originals.stream().allMatch(file -> !fileAreEqual(file, suggestedOriginal));
-        });
+        // other files without any byte-identical original
+        ORIGINALS(false),
+
+        // every root against every other one, the original path is the root of the highest priority
+        CLUSTER(true),
+
+        // equal image data of JPEGs whatever their metadata segments are, byte-exact for any other file, resolved by the PayloadFinder only
+        PAYLOAD_DUPLICATE(true),
 
+        // perceptual hashes within the configured threshold, resolved by the NearDuplicateFinder only
+        NEAR_DUPLICATE(true);
 
-        private BiFunction<Set<Path>, Path, Boolean> operation;
 
-        OPERATIONS(BiFunction<Set<Path>, Path, Boolean> operation) {
-            this.operation = operation;
+        // whether the operation keeps the files having an equal original or those without any
+        private final boolean selectsMatched;
+
+        OPERATIONS(boolean selectsMatched) {
+            this.selectsMatched = selectsMatched;
         }
 
-        Boolean apply(Set<Path> originals, Path file) {
-            return operation.apply(originals, file);
+        boolean selects(boolean hasEqualOriginal) {
+            return selectsMatched == hasEqualOriginal;
         }
     }
 
@@ -85,130 +139,491 @@ public class PhotoCompare {
     }
 
     public List<Path> filterDirectoryBWithFunction(Path originalPath, List<Path> otherPaths, OPERATIONS operation) {
+        return matchDirectoryBWithFunction(originalPath, otherPaths, operation).stream()
+                .map(Match::getPath)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Same as {@link #filterDirectoryBWithFunction(Path, List, OPERATIONS)}, every selected file comes with the original it matched.
+     */
+    public List<Match> matchDirectoryBWithFunction(Path originalPath, List<Path> otherPaths, OPERATIONS operation) {
+        if (ArchiveDigest.isArchiveDigest(originalPath)) {
+            return matchArchive(originalPath, otherPaths, operation);
+        }
         otherPaths.forEach(otherPath -> validate(originalPath, otherPath));
 
-        log.info("Retrieving listing of files of '" + originalPath.toAbsolutePath() + "' and " + Arrays.toString(otherPaths.toArray()) + ", might take several minutes to complete [obtain a file size and save to a map] ...");
-        List<File> originalFiles = originalPathFiles.containsKey(originalPath) ? originalPathFiles.get(originalPath) : getFilesRecursive(originalPath, file -> file.isFile(), otherPaths);
-        originalPathFiles.putIfAbsent(originalPath, originalFiles);
+        if (operation == OPERATIONS.CLUSTER) {
+            return clusterRoots(originalPath, otherPaths);
+        }
 
-        log.info("Original path '" + originalPath.toAbsolutePath() + "' contains " + originalPathFiles.get(originalPath).size() + " files.");
+        if (operation == OPERATIONS.NEAR_DUPLICATE || operation == OPERATIONS.PAYLOAD_DUPLICATE) {
+            return matchImages(originalPath, otherPaths, operation);
+        }
 
-        List<File> otherFiles = new ArrayList<>();
-        otherPaths.forEach(otherPath -> otherFiles.addAll(getFilesRecursive(otherPath, file -> file.isFile(), List.of(originalPath))));
+        // Only take those files that are at least two of a size and at least one from the other path
+        List<FileCatalog.Group> filteredSuggestedFileGroups = getSuggestedFileGroups(originalPath, otherPaths);
+        statistics(filteredSuggestedFileGroups);
 
-        log.info("Other paths '" + otherPaths.stream().map(otherPath -> otherPath.toAbsolutePath().toString()).collect(Collectors.joining("', '")) + "' contains " + otherFiles.size() + " files.");
+        log.info("Now processing the duplicate entries of the same file size, wait a few minutes.");
 
-        log.info("Now processing the duplicate entries by comparing file sizes, wait a few minutes.");
+        try {
+            return metrics.time(DedupMetrics.Phase.CONFIRMATION, () -> confirmSuggestions(originalPath, otherPaths, operation, filteredSuggestedFileGroups));
+        } finally {
+            contentHasher.flush();
+        }
+    }
 
-        Map<Long, List<Path>> multimapFileSize = new HashMap<>();
-        putSizeMapEntries(otherFiles, multimapFileSize, false);
-        putSizeMapEntries(originalFiles, multimapFileSize, true);
+    private List<Match> matchImages(Path originalPath, List<Path> otherPaths, OPERATIONS operation) {
+        log.info("Retrieving listing of files of '" + originalPath.toAbsolutePath() + "' and " + Arrays.toString(otherPaths.toArray()) + ", might take several minutes to complete ...");
+        List<FileEntry> originalFiles = metrics.time(DedupMetrics.Phase.WALK, () -> getFilesRecursive(originalPath, otherPaths));
+        metrics.files("original", originalFiles.size());
 
-        // Only take those files that are at least two in the size map and at least one from the other path
-        List<Map.Entry<Long, List<Path>>> filteredSuggestedFileGroups = getSuggestedFileGroups(originalPath, otherPaths, multimapFileSize);
-        statistics(filteredSuggestedFileGroups);
+        log.info("Original path '" + originalPath.toAbsolutePath() + "' contains " + originalFiles.size() + " files.");
+
+        List<FileEntry> otherFiles = new ArrayList<>();
+        metrics.time(DedupMetrics.Phase.WALK, () -> {
+            otherPaths.forEach(otherPath -> otherFiles.addAll(getFilesRecursive(otherPath, List.of(originalPath))));
+            return otherFiles;
+        });
+        metrics.files("other", otherFiles.size());
+
+        log.info("Other paths '" + otherPaths.stream().map(otherPath -> otherPath.toAbsolutePath().toString()).collect(Collectors.joining("', '")) + "' contains " + otherFiles.size() + " files.");
 
-        return confirmSuggestions(originalPath, otherPaths, operation, filteredSuggestedFileGroups);
+        if (operation == OPERATIONS.NEAR_DUPLICATE) {
+            log.info("Now processing the near duplicate entries by comparing perceptual hashes, wait a few minutes.");
+            try {
+                List<Match> nearDuplicates = metrics.time(DedupMetrics.Phase.CONFIRMATION, () -> new NearDuplicateFinder(contentHasher, nearDuplicateThreshold, concurrency, ioScheduler).find(originalFiles, otherFiles));
+                report(nearDuplicates);
+                return nearDuplicates;
+            } finally {
+                contentHasher.flush();
+            }
+        }
+
+        log.info("Now processing the duplicate entries by comparing the image data, wait a few minutes.");
+        try {
+            List<Match> payloadDuplicates = metrics.time(DedupMetrics.Phase.CONFIRMATION, () -> new PayloadFinder(contentHasher, concurrency, ioScheduler).find(originalFiles, otherFiles));
+            report(payloadDuplicates);
+            return payloadDuplicates;
+        } finally {
+            contentHasher.flush();
+        }
     }
 
-    private List<Path> confirmSuggestions(Path originalPath, List<Path> otherPaths, OPERATIONS operation, List<Map.Entry<Long, List<Path>>> filteredSuggestedOtherFileEntries) {
-        AtomicInteger checks = new AtomicInteger(0);
-        log.info("Please provide a number for obtaining the process statistics [ideally 8-32], the sampleSolutionCodility will only run for the first n*128 files to keep the process quick.");
+    private List<Match> confirmSuggestions(Path originalPath, List<Path> otherPaths, OPERATIONS operation, List<FileCatalog.Group> filteredSuggestedOtherFileEntries) {
         Integer modulo = Math.max(1, filteredSuggestedOtherFileEntries.size() / 100); // Application.waitForNumber();
-        log.info("Please provide a number for skipping certain number of groups, might be a number similar to previously investigated.");
+        if (interactive) {
+            if (!fullCoverage) {
+                log.info("Please provide a number for obtaining the process statistics [ideally 8-32], the sampleSolutionCodility will only run for the first n*128 files to keep the process quick.");
+            }
+            log.info("Please provide a number for skipping certain number of groups, might be a number similar to previously investigated.");
+        }
         Integer skipGroups = 0; // Application.waitForNumber();
 
-        int limit = Math.min(filteredSuggestedOtherFileEntries.size(), modulo * 128);
-        return filteredSuggestedOtherFileEntries.stream()
-                .limit(limit)
+        int limit = fullCoverage ? filteredSuggestedOtherFileEntries.size() : Math.min(filteredSuggestedOtherFileEntries.size(), modulo * 128);
+        List<FileCatalog.Group> groups = filteredSuggestedOtherFileEntries.stream()
+                .sorted(Comparator.comparing(group -> others(group).get(0).getPath().toAbsolutePath()))
                 .skip(skipGroups)
-                .sorted(Comparator.comparing(entry -> entry.getValue().get(0).toAbsolutePath()))
-                .flatMap(entry -> {
-                    if (checks.getAndIncrement() % modulo == 0) {
-                        log.info("===");
-                        log.info("=== Just passing processing " + checks.get() + "th out of " + filteredSuggestedOtherFileEntries.size() + " groups (" + String.format("%,3d", checks.get() * 100 / Math.min(limit, filteredSuggestedOtherFileEntries.size())) + "%) [limit " + limit + "] === ");
-                        log.info("===");
+                .limit(limit)
+                .collect(Collectors.toList());
+
+        Progress progress = new Progress("groups [limit " + limit + "]", groups.size(), modulo);
+        Checkpoint checkpoint = checkpointPath == null ? null : Checkpoint.open(checkpointPath, describeRun(originalPath, otherPaths, operation), CHECKPOINT_INTERVAL);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency), daemonThreads("confirm"));
+        try {
+            // only a bounded window of groups is in flight, joined in the submission order the result stays the same whatever the concurrency is
+            int window = Math.max(1, concurrency) * 4;
+            Deque<CompletableFuture<List<Match>>> confirmations = new ArrayDeque<>();
+            List<Match> searchedOtherFiles = new ArrayList<>();
+            for (FileCatalog.Group group : groups) {
+                if (confirmations.size() >= window) {
+                    searchedOtherFiles.addAll(join(confirmations.poll()));
+                }
+                if (checkpoint != null && checkpoint.isConfirmed(group.getSize())) {
+                    progress.completed(group.getPaths().size());
+                    report(checkpoint.getSelected(group.getSize()));
+                    confirmations.add(CompletableFuture.completedFuture(checkpoint.getSelected(group.getSize())));
+                    continue;
+                }
+                confirmations.add(CompletableFuture.supplyAsync(() -> {
+                    List<Match> selected = metrics.timeGroup(() -> confirmGroup(operation, group));
+                    if (checkpoint != null) {
+                        checkpoint.confirmed(group.getSize(), selected);
                     }
+                    report(selected);
+                    progress.completed(group.getPaths().size());
+                    return selected;
+                }, executor));
+            }
+            while (!confirmations.isEmpty()) {
+                searchedOtherFiles.addAll(join(confirmations.poll()));
+            }
+            if (checkpoint != null) {
+                checkpoint.finished();
+            }
+            return searchedOtherFiles;
+        } finally {
+            executor.shutdownNow();
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+        }
+    }
 
-                    List<Path> files = entry.getValue();
-                    Set<Path> originals = files.stream()
-                            .filter(path -> path.startsWith(originalPath) && otherPaths.stream().allMatch(otherPath -> !path.startsWith(otherPath)))
-                            .collect(Collectors.toSet());
+    private static String describeRun(Path originalPath, List<Path> otherPaths, OPERATIONS operation) {
+        return Checkpoint.FORMAT + " " + operation.name() + " " + originalPath.toAbsolutePath() + " " + otherPaths.stream().map(otherPath -> otherPath.toAbsolutePath().toString()).collect(Collectors.joining(" "));
+    }
 
-                    List<Path> searchedOtherFiles = files.stream()
-                            .filter(anyButOriginalFiles -> !originals.contains(anyButOriginalFiles))
-                            .filter(suggestedSearches -> operation.apply(originals, suggestedSearches))
-                            .collect(Collectors.toList());
-                    return searchedOtherFiles.stream();
-                }).collect(Collectors.toList());
+    private List<Match> confirmGroup(OPERATIONS operation, FileCatalog.Group group) {
+        List<FileEntry> originals = new ArrayList<>();
+        for (int entry = 0; entry < group.getPaths().size(); entry++) {
+            if (group.getRoots()[entry] == ORIGINAL_ROOT) {
+                originals.add(group.entry(entry));
+            }
+        }
+        List<FileEntry> others = others(group);
+
+        Map<Path, Match> matchedOthers = matchOthersByContent(group.getSize(), originals, others);
+        return others.stream()
+                .map(FileEntry::getPath)
+                .filter(suggestedSearches -> operation.selects(matchedOthers.containsKey(suggestedSearches)))
+                .map(suggestedSearches -> matchedOthers.getOrDefault(suggestedSearches, Match.unmatched(suggestedSearches, group.getSize())))
+                .collect(Collectors.toList());
     }
 
-    private void statistics(List<Map.Entry<Long, List<Path>>> filterEntriesWithValidCondition) {
-        // Get the statistics about the investigation
-        filterEntriesWithValidCondition.stream().forEach(entry -> {
-            log.debug(String.format("%,2d", entry.getValue().size()) + " files, " + String.format("%,8d", entry.getKey()) + " B each.");
+    private static List<FileEntry> others(FileCatalog.Group group) {
+        // the directories are listed in parallel, sorted the others come out the same in every run
+        List<FileEntry> others = new ArrayList<>();
+        for (int entry = 0; entry < group.getPaths().size(); entry++) {
+            if (group.getRoots()[entry] == OTHER_ROOT) {
+                others.add(group.entry(entry));
+            }
+        }
+        others.sort(Comparator.comparing(FileEntry::getPath));
+        return others;
+    }
+
+    private List<Match> clusterRoots(Path originalPath, List<Path> otherPaths) {
+        List<Path> roots = new ArrayList<>();
+        for (Path root : Stream.concat(Stream.of(originalPath), otherPaths.stream()).map(path -> path.toAbsolutePath().normalize()).collect(Collectors.toList())) {
+            // a root listed twice or within another one would cluster every file of it with itself
+            roots.stream()
+                    .filter(listed -> listed.startsWith(root) || root.startsWith(listed))
+                    .findFirst()
+                    .ifPresent(listed -> {
+                        log.error("Roots '" + listed + "' and '" + root + "' overlap, provide distinct directories to cluster!");
+                        throw new IllegalStateException("Overlapping roots to cluster!");
+                    });
+            roots.add(root);
+        }
+        log.info("Retrieving listing of files of " + Arrays.toString(roots.toArray()) + " in the order of their priority ...");
+        List<List<FileEntry>> rootFiles = metrics.time(DedupMetrics.Phase.WALK, () -> roots.stream()
+                .map(root -> getFilesRecursive(root, roots.stream().filter(otherRoot -> !otherRoot.equals(root)).collect(Collectors.toList())))
+                .collect(Collectors.toList()));
+        metrics.files("original", rootFiles.get(0).size());
+        metrics.files("other", rootFiles.stream().skip(1).mapToInt(List::size).sum());
+
+        log.info("Now clustering identical files across all the roots, wait a few minutes.");
+        try {
+            return metrics.time(DedupMetrics.Phase.CONFIRMATION, () -> new DuplicateClusterer(contentHasher, concurrency, verifyCollisions, ioScheduler)
+                    .cluster(rootFiles, catalogEntriesInMemory, copies -> metrics.timeGroup(() -> {
+                        report(copies);
+                        return copies;
+                    })));
+        } finally {
+            contentHasher.flush();
+        }
+    }
+
+    /**
+     * Writes the {@link ArchiveDigest} of the original path, it stands for the original path of later runs of {@link OPERATIONS#DUPLICATE}
+     * and {@link OPERATIONS#ORIGINALS} while the originals aren't mounted.
+     */
+    public void exportArchiveDigest(Path originalPath, Path digestPath, int bloomBitsPerEntry) {
+        if (!originalPath.toFile().isDirectory()) {
+            log.error("Provide a directory of originals, not a file!");
+            throw new IllegalStateException("Not a directory to export!");
+        }
+        log.info("Retrieving listing of files of '" + originalPath.toAbsolutePath() + "' to export their digests ...");
+        List<FileEntry> originalFiles = metrics.time(DedupMetrics.Phase.WALK, () -> getFilesRecursive(originalPath, List.of())).stream()
+                .filter(PhotoCompare::isCandidate)
+                .collect(Collectors.toList());
+        metrics.files("original", originalFiles.size());
+
+        try {
+            List<String> digests = metrics.time(DedupMetrics.Phase.CONFIRMATION, () -> contentDigests(originalFiles, "originals", (file, digest) -> digest));
+            List<Map.Entry<Long, String>> originals = new ArrayList<>();
+            for (int i = 0; i < originalFiles.size(); i++) {
+                originals.add(Map.entry(originalFiles.get(i).getSize(), digests.get(i)));
+            }
+            ArchiveDigest.write(digestPath, originals, bloomBitsPerEntry);
+        } finally {
+            contentHasher.flush();
+        }
+    }
+
+    private List<Match> matchArchive(Path digestPath, List<Path> otherPaths, OPERATIONS operation) {
+        if (operation != OPERATIONS.DUPLICATE && operation != OPERATIONS.ORIGINALS) {
+            throw new IllegalStateException("Operation " + operation + " needs the original files, an archive digest serves " + OPERATIONS.DUPLICATE + " and " + OPERATIONS.ORIGINALS + " only!");
+        }
+        otherPaths.forEach(otherPath -> {
+            if (!otherPath.toFile().isDirectory()) {
+                log.error("Provide directories, not files!");
+                throw new IllegalStateException("Not directories to compare!");
+            }
+        });
+
+        try (ArchiveDigest archive = ArchiveDigest.open(digestPath)) {
+            metrics.files("original", archive.size());
+            List<FileEntry> otherFiles = new ArrayList<>();
+            metrics.time(DedupMetrics.Phase.WALK, () -> {
+                otherPaths.forEach(otherPath -> otherFiles.addAll(getFilesRecursive(otherPath, List.of())));
+                return otherFiles;
+            });
+            metrics.files("other", otherFiles.size());
+
+            // only files of a size found in the archive are read at all
+            List<FileEntry> candidates = otherFiles.stream()
+                    .filter(file -> isCandidate(file) && archive.containsSize(file.getSize()))
+                    .sorted(Comparator.comparing(FileEntry::getPath))
+                    .collect(Collectors.toList());
+            log.info("Other paths '" + otherPaths.stream().map(otherPath -> otherPath.toAbsolutePath().toString()).collect(Collectors.joining("', '")) + "' contains "
+                    + otherFiles.size() + " files, " + candidates.size() + " of them of a size archived in '" + digestPath.toAbsolutePath() + "'.");
+
+            try {
+                return metrics.time(DedupMetrics.Phase.CONFIRMATION, () -> contentDigests(candidates, "files", (file, digest) -> {
+                    // an archived original has no path to link to, its copies are only ever deleted
+                    boolean archived = archive.contains(file.getSize(), digest);
+                    if (!operation.selects(archived)) {
+                        return null;
+                    }
+                    if (archived) {
+                        log.info(String.format("%50s", file.getPath().toAbsolutePath()) + " duplicates an original archived in " + digestPath.toAbsolutePath());
+                    }
+                    Match match = archived ? new Match(file.getPath(), null, file.getSize(), digest) : Match.unmatched(file.getPath(), file.getSize());
+                    report(List.of(match));
+                    return match;
+                })).stream().filter(Objects::nonNull).collect(Collectors.toList());
+            } finally {
+                contentHasher.flush();
+            }
+        }
+    }
+
+    /**
+     * Content digests of the files mapped by {@code resolved} as soon as each is known, the results keep the order of the files.
+     */
+    private <T> List<T> contentDigests(List<FileEntry> files, String unit, BiFunction<FileEntry, String, T> resolved) {
+        Progress progress = new Progress(unit, files.size(), Math.max(1, files.size() / 100));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency), daemonThreads("digest"));
+        try {
+            int window = Math.max(1, concurrency) * 4;
+            Deque<CompletableFuture<T>> digests = new ArrayDeque<>();
+            List<T> results = new ArrayList<>();
+            for (FileEntry file : files) {
+                if (digests.size() >= window) {
+                    results.add(join(digests.poll()));
+                }
+                digests.add(CompletableFuture.supplyAsync(() -> {
+                    Function<FileEntry, String> digest = ContentHasher.sampleCoversFile(file.getSize()) ? contentHasher::partialDigest : contentHasher::fullDigest;
+                    T result = resolved.apply(file, join(IoScheduler.schedule(ioScheduler, file, () -> digest.apply(file))));
+                    progress.completed(1);
+                    return result;
+                }, executor));
+            }
+            while (!digests.isEmpty()) {
+                results.add(join(digests.poll()));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static boolean isCandidate(FileEntry file) {
+        // Skip mac hidden dot files
+        return file.getSize() > 0 && file.getSize() != 4096;
+    }
+
+    private void report(List<Match> group) {
+        if (reportWriter != null && !group.isEmpty()) {
+            reportWriter.write(group);
+        }
+    }
+
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger(0);
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Narrows a same-size group down by the partial digest first, only files sharing a partial digest with the other side
+     * get the full digest. Returns the other files having an equal original.
+     */
+    Map<Path, Match> matchOthersByContent(long size, List<FileEntry> originalFiles, List<FileEntry> otherFiles) {
+        if (originalFiles.isEmpty() || otherFiles.isEmpty()) {
+            return Map.of();
+        }
+        Map<Path, FileEntry> files = new HashMap<>();
+        Stream.concat(originalFiles.stream(), otherFiles.stream()).forEach(file -> files.putIfAbsent(file.getPath(), file));
+        List<Path> originals = originalFiles.stream().map(FileEntry::getPath).distinct().collect(Collectors.toList());
+        List<Path> others = otherFiles.stream()
+                .map(FileEntry::getPath)
+                .filter(other -> {
+                    if (originals.contains(other)) {
+                        log.warn("Paths of file '" + other.toAbsolutePath() + "' and its original should differ, this might be a serious issue!");
+                        return false;
+                    }
+                    return true;
+                })
+                .collect(Collectors.toList());
+
+        Map<Path, String> partialDigests = digests(files, Stream.concat(originals.stream(), others.stream()), contentHasher::partialDigest);
+        Map<String, List<Path>> originalsByPartial = originals.stream()
+                .collect(Collectors.groupingBy(partialDigests::get));
+        Map<String, List<Path>> othersByPartial = others.stream()
+                .collect(Collectors.groupingBy(partialDigests::get));
+
+        // the full digests of every file sharing a partial digest with the other side are queued at once
+        Map<Path, String> fullDigests = ContentHasher.sampleCoversFile(size) ? Map.of() : digests(files, othersByPartial.entrySet().stream()
+                .filter(entry -> originalsByPartial.containsKey(entry.getKey()))
+                .flatMap(entry -> Stream.concat(originalsByPartial.get(entry.getKey()).stream(), entry.getValue().stream())), contentHasher::fullDigest);
+
+        Map<Path, Match> matched = new HashMap<>();
+        othersByPartial.forEach((partialDigest, partialOthers) -> {
+            List<Path> partialOriginals = originalsByPartial.get(partialDigest);
+            if (partialOriginals == null) {
+                return;
+            }
+            if (ContentHasher.sampleCoversFile(size)) {
+                partialOthers.forEach(other -> {
+                    if (confirmCollision(partialOriginals.get(0), other)) {
+                        matched.put(other, new Match(other, partialOriginals.get(0), size, partialDigest));
+                    }
+                });
+                return;
+            }
+            Map<String, Path> originalsByFull = new HashMap<>();
+            partialOriginals.forEach(original -> originalsByFull.putIfAbsent(fullDigests.get(original), original));
+            partialOthers.forEach(other -> {
+                String fullDigest = fullDigests.get(other);
+                Path original = originalsByFull.get(fullDigest);
+                if (original != null && confirmCollision(original, other)) {
+                    matched.put(other, new Match(other, original, size, fullDigest));
+                }
+            });
         });
+        return matched;
+    }
+
+    private Map<Path, String> digests(Map<Path, FileEntry> files, Stream<Path> paths, Function<FileEntry, String> digest) {
+        Map<Path, CompletableFuture<String>> pending = new LinkedHashMap<>();
+        paths.forEach(file -> pending.computeIfAbsent(file, path -> IoScheduler.schedule(ioScheduler, files.get(path), () -> digest.apply(files.get(path)))));
+        Map<Path, String> digests = new HashMap<>();
+        pending.forEach((path, future) -> digests.put(path, join(future)));
+        return digests;
+    }
+
+    private boolean confirmCollision(Path original, Path other) {
+        if (!verifyCollisions) {
+            log.info(String.format("%50s", other.toAbsolutePath()) + " duplicates original " + original.toAbsolutePath());
+            return true;
+        }
+        if (fileAreEqual(original, other)) {
+            log.info(String.format("%50s", other.toAbsolutePath()) + " duplicates original " + original.toAbsolutePath() + " [verified]");
+            return true;
+        }
+        log.error("Files '" + original.toAbsolutePath() + "' and '" + other.toAbsolutePath() + "' share a digest but differ in content!");
+        return false;
+    }
+
+    private void statistics(List<FileCatalog.Group> filterEntriesWithValidCondition) {
+        // Get the statistics about the investigation
+        if (log.isDebugEnabled()) {
+            filterEntriesWithValidCondition.stream().forEach(group -> {
+                log.debug(String.format("%,2d", group.getPaths().size()) + " files, " + String.format("%,8d", group.getSize()) + " B each.");
+            });
+        }
         AtomicLong sum = new AtomicLong(0);
-        filterEntriesWithValidCondition.forEach(entry -> sum.addAndGet(entry.getKey()));
+        filterEntriesWithValidCondition.forEach(group -> sum.addAndGet(group.getSize()));
         log.info("Total file groups to investigate: " + filterEntriesWithValidCondition.size());
         log.info("In total potential duplicities reaching over " + String.format("%15d", sum.get()) + " Bytes!");
     }
 
-    private List<Map.Entry<Long, List<Path>>> getSuggestedFileGroups(Path originalPath, List<Path> otherPaths, Map<Long, List<Path>> multimapFileSize) {
-        var list = new ArrayList<>(multimapFileSize
-                .entrySet().stream()
-                // contains at least two entries
-                .filter(entry -> entry.getValue().size() > 1)
-                // Skip mac hidden dot files
-                .filter(entry -> entry.getKey() != 4096)
-                .filter(entry -> entry.getKey() > 0)
-                .filter(entry -> entry.getValue().stream().anyMatch(path -> otherPaths.stream().anyMatch(otherPath -> path.startsWith(otherPath))))
-                // contains at least a single file from the original path
-                .filter(entry -> entry.getValue().stream().anyMatch(path -> path.startsWith(originalPath)))
-                .collect(Collectors.toUnmodifiableSet()));
-        list.sort(Comparator.comparing(Map.Entry::getKey));
-        return list;
-    }
-
-    private void putSizeMapEntries(List<File> files, Map<Long, List<Path>> paths, boolean onlyEnhanceExistingEntries) {
-        files.forEach(file -> {
-            Path path = file.toPath();
-            Long size = file.length();
-            if (!paths.containsKey(size) && !onlyEnhanceExistingEntries) {
-                paths.put(size, new ArrayList<>());
-                paths.get(size).add(path);
-            } else if (paths.containsKey(size)) {
-                paths.get(size).add(path);
+    /**
+     * Lists the trees straight into a {@link FileCatalog}, no listing of the whole trees is ever held. Returns the groups of a size
+     * having both an original and an other file.
+     */
+    List<FileCatalog.Group> getSuggestedFileGroups(Path originalPath, List<Path> otherPaths) {
+        log.info("Retrieving listing of files of '" + originalPath.toAbsolutePath() + "' and " + Arrays.toString(otherPaths.toArray()) + ", might take several minutes to complete [obtain a file size and save to a catalog] ...");
+        List<FileCatalog.Group> groups = new ArrayList<>();
+        try (FileCatalog catalog = new FileCatalog(catalogEntriesInMemory)) {
+            // files of the other paths go first, a group lists them before the originals
+            long otherFiles = metrics.time(DedupMetrics.Phase.WALK, () -> otherPaths.stream().mapToLong(otherPath -> putCatalogEntries(catalog, OTHER_ROOT, otherPath, List.of(originalPath))).sum());
+            metrics.files("other", otherFiles);
+            log.info("Other paths '" + otherPaths.stream().map(otherPath -> otherPath.toAbsolutePath().toString()).collect(Collectors.joining("', '")) + "' contains " + otherFiles + " files.");
+            long originalFiles = metrics.time(DedupMetrics.Phase.WALK, () -> putCatalogEntries(catalog, ORIGINAL_ROOT, originalPath, otherPaths));
+            metrics.files("original", originalFiles);
+            log.info("Original path '" + originalPath.toAbsolutePath() + "' contains " + originalFiles + " files.");
+            metrics.time(DedupMetrics.Phase.GROUPING, () -> {
+                catalog.forEachGroup(group -> {
+                    // contains at least a single file from the original path and one from the other paths
+                    if (group.containsRoot(ORIGINAL_ROOT) && group.containsOtherRootThan(ORIGINAL_ROOT)) {
+                        groups.add(group);
+                    }
+                });
+                return groups;
+            });
+        }
+        return groups;
+    }
+
+    /**
+     * Returns the number of files listed, candidates or not.
+     */
+    private long putCatalogEntries(FileCatalog catalog, int root, Path path, List<Path> skipPaths) {
+        long[] files = {0};
+        fileWalker.walk(path, skipPaths, file -> {
+            files[0]++;
+            if (isCandidate(file)) {
+                catalog.add(root, file);
             }
         });
+        return files[0];
     }
 
-    private List<File> getFilesRecursive(Path path, Function<File, Boolean> filter, List<Path> skipPaths) {
-        if (skipPaths.contains(path)) {
-            log.warn("Skipping the path '" + path + "' as requested.");
-            return new ArrayList<>();
-        }
-        List<File> files = new ArrayList<>(
-                Arrays.asList(path.toFile().listFiles(pathname -> filter.apply(pathname)))
-                        .stream()
-                        .collect(Collectors.toUnmodifiableList())
-        );
-        List<File> directories = Arrays.asList(
-                path.toFile()
-                        .list((current, name) -> new File(current, name).isDirectory()))
-                .stream()
-                .map(name -> path.resolve(name).toFile())
-                .collect(Collectors.toList());
-
-        log.debug("Retrieving listing of '" + path.toAbsolutePath() + "' with " + directories.size() + " directories and " + files.size() + " files.");
+    /**
+     * Persists the digests computed so far when they are kept in a {@link DigestCatalog}.
+     */
+    void flushDigests() {
+        contentHasher.flush();
+    }
 
-        directories.forEach(directory -> files.addAll(
-                getFilesRecursive(directory.toPath(), filter, skipPaths)
-        ));
+    List<FileEntry> getFilesRecursive(Path path, List<Path> skipPaths) {
+        return fileWalker.walk(path, skipPaths);
+    }
 
-        log.debug("Directories of " + path.toAbsolutePath() + " processed.");
-        files.sort(Comparator.comparing(File::getAbsolutePath));
-        log.debug(files.size() + " files sorted and returned to the caller " + path.toAbsolutePath() + ".");
-        return files;
+    /**
+     * Shuts the pool listing the trees down, nothing can be compared afterwards.
+     */
+    @Override
+    public void close() {
+        fileWalker.close();
     }
 }
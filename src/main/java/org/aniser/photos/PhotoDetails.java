@@ -2,12 +2,14 @@ package org.aniser.photos;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.Optional;
 
+import org.apache.logging.log4j.util.Strings;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
@@ -17,15 +19,32 @@ import com.drew.lang.GeoLocation;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.exif.GpsDirectory;
 
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
 @Component
 public class PhotoDetails implements CommandLineRunner {
 
+    private static final String CATALOG_PROPERTY = "snap.metadata.catalog";
+    private static final String CONCURRENCY_PROPERTY = "snap.concurrency";
+    private static final String PLACES_PROPERTY = "snap.details.places";
+    private static final String PLACE_RADIUS_PROPERTY = "snap.details.radius";
+    private static final String PLACE_MIN_PHOTOS_PROPERTY = "snap.details.min";
+    private static final double CELL_DEGREES = 0.05;
+
+    @Value("${snap.details.root:}")
+    private String rootDirectoryName;
+
     @Override
     public void run(String... args) {
-        main(args);
+        if (Strings.isEmpty(rootDirectoryName)) {
+            log.info("No root for the photo details given [snap.details.root], skipping.");
+            return;
+        }
+        main(new String[]{rootDirectoryName});
     }
 
-    private enum GeoLocations {
+    enum GeoLocations {
         GEO_UNKNOWN(new GeoLocation(-1,-1), "geo location unknown");
 
         private GeoLocation geoLocation;
@@ -66,40 +85,51 @@ public class PhotoDetails implements CommandLineRunner {
                 return GeoLocations.GEO_UNKNOWN.geoLocation;
             }
             return gpsDirectory.get().getGeoLocation();
-        } catch (IOException | ImageProcessingException e){
-
-        } finally {
-
+        } catch (IOException | ImageProcessingException e) {
+            throw new IllegalStateException("Geo location of '" + fileName.toAbsolutePath() + "' couldn't be read!", e);
         }
-        throw new IllegalStateException();
     }
 
-    private static void print(Path imageName, GeoLocation geoLocation) {
-        if(GeoLocations.invalidGeoLocation(geoLocation)) {
-            System.out.println(imageName + " : " + GeoLocations.GEO_UNKNOWN.toString());
+    private static void print(PhotoMetadata metadata) {
+        if (metadata.isFailed()) {
+            System.out.println(metadata.getPath() + " : metadata unreadable, " + metadata.getFailure());
+            return;
+        }
+        GeoLocation geoLocation = metadata.getGeoLocation().orElse(null);
+        if (GeoLocations.invalidGeoLocation(geoLocation)) {
+            System.out.println(metadata.getPath() + " : " + GeoLocations.GEO_UNKNOWN.toString());
             return;
-        };
-        System.out.println(imageName + " : " + geoLocation);
+        }
+        System.out.println(metadata.getPath() + " : " + geoLocation);
     }
 
-
-    private static void process(Path path) {
-        if ( path.toFile().isDirectory() ) {
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
-                stream.forEach(imageName -> process(imageName));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        } else if ( path.toFile().isFile() ) {
-            print(path, getGeoLocation(path));
+    private static List<PhotoMetadata> process(Path path, MetadataCatalog catalog) {
+        List<PhotoMetadata> photos;
+        try (MetadataExtractor extractor = new MetadataExtractor(catalog, Integer.getInteger(CONCURRENCY_PROPERTY, Runtime.getRuntime().availableProcessors()))) {
+            photos = extractor.extract(path);
         }
+        photos.forEach(PhotoDetails::print);
+        log.info(photos.size() + " files processed, " + photos.stream().filter(PhotoMetadata::isFailed).count() + " of them with unreadable metadata.");
+        return photos;
+    }
+
+    private static void exportPlaces(List<PhotoMetadata> photos, Path places) {
+        GeoIndex geoIndex = new GeoIndex(photos, CELL_DEGREES);
+        double radiusKm = Double.parseDouble(System.getProperty(PLACE_RADIUS_PROPERTY, "1.0"));
+        int minPhotos = Integer.getInteger(PLACE_MIN_PHOTOS_PROPERTY, 3);
+        geoIndex.export(geoIndex.cluster(radiusKm, minPhotos), places);
     }
 
 
     public static void main(String [] args) {
-        String rootDirectoryName = "c://tmp//";
-
-        process(Paths.get(rootDirectoryName));
+        if (args.length < 1) {
+            throw new IllegalStateException("Provide the root directory of the photos!");
+        }
+        Path catalogPath = Path.of(System.getProperty(CATALOG_PROPERTY, Path.of(System.getProperty("user.home"), ".snap.organis.io", "metadata.catalog").toString()));
+        try (MetadataCatalog catalog = MetadataCatalog.open(catalogPath)) {
+            List<PhotoMetadata> photos = process(Paths.get(args[0]), catalog);
+            Optional.ofNullable(System.getProperty(PLACES_PROPERTY)).map(Path::of).ifPresent(places -> exportPlaces(photos, places));
+        }
     }
 
 }
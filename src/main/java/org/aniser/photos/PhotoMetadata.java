@@ -0,0 +1,71 @@
+package org.aniser.photos;
+
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Optional;
+
+import com.drew.lang.GeoLocation;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.exif.GpsDirectory;
+import com.drew.metadata.jpeg.JpegDirectory;
+
+import lombok.Value;
+
+/**
+ * Fields of a single photo taken from its metadata, or the reason they couldn't be taken.
+ * Unknown coordinates are {@link Double#NaN}, an unknown capture time, camera or dimension is {@code null}.
+ */
+@Value
+public class PhotoMetadata {
+    Path path;
+    long size;
+    long lastModified;
+    double latitude;
+    double longitude;
+    Long captureTime;
+    String camera;
+    Integer width;
+    Integer height;
+    String failure;
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    public Optional<GeoLocation> getGeoLocation() {
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return Optional.empty();
+        }
+        return Optional.of(new GeoLocation(latitude, longitude));
+    }
+
+    static PhotoMetadata failed(FileEntry file, String failure) {
+        return new PhotoMetadata(file.getPath(), file.getSize(), file.getLastModified(), Double.NaN, Double.NaN, null, null, null, null, failure);
+    }
+
+    static PhotoMetadata of(FileEntry file, Metadata metadata) {
+        GeoLocation geoLocation = Optional.ofNullable(metadata.getFirstDirectoryOfType(GpsDirectory.class))
+                .map(GpsDirectory::getGeoLocation)
+                .filter(location -> !PhotoDetails.GeoLocations.invalidGeoLocation(location))
+                .orElse(null);
+
+        ExifSubIFDDirectory exif = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
+        Long captureTime = Optional.ofNullable(exif).map(ExifSubIFDDirectory::getDateOriginal).map(Date::getTime).orElse(null);
+
+        ExifIFD0Directory ifd0 = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+        String camera = ifd0 == null ? null : Optional.ofNullable(ifd0.getString(ExifIFD0Directory.TAG_MAKE)).map(String::trim).orElse("")
+                + " " + Optional.ofNullable(ifd0.getString(ExifIFD0Directory.TAG_MODEL)).map(String::trim).orElse("");
+        camera = camera == null || camera.isBlank() ? null : camera.trim();
+
+        JpegDirectory jpeg = metadata.getFirstDirectoryOfType(JpegDirectory.class);
+        Integer width = jpeg != null ? jpeg.getInteger(JpegDirectory.TAG_IMAGE_WIDTH) : exif == null ? null : exif.getInteger(ExifSubIFDDirectory.TAG_EXIF_IMAGE_WIDTH);
+        Integer height = jpeg != null ? jpeg.getInteger(JpegDirectory.TAG_IMAGE_HEIGHT) : exif == null ? null : exif.getInteger(ExifSubIFDDirectory.TAG_EXIF_IMAGE_HEIGHT);
+
+        return new PhotoMetadata(file.getPath(), file.getSize(), file.getLastModified(),
+                geoLocation == null ? Double.NaN : geoLocation.getLatitude(),
+                geoLocation == null ? Double.NaN : geoLocation.getLongitude(),
+                captureTime, camera, width, height, null);
+    }
+}
@@ -0,0 +1,43 @@
+package org.aniser.photos;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Thread-safe progress of a run, logs a banner whenever another {@code modulo} units were completed.
+ */
+@Slf4j
+public class Progress {
+
+    private final String unit;
+    private final long total;
+    private final long modulo;
+    private final AtomicLong completed = new AtomicLong(0);
+    private final LongAdder files = new LongAdder();
+
+    public Progress(String unit, long total, long modulo) {
+        this.unit = unit;
+        this.total = total;
+        this.modulo = Math.max(1, modulo);
+    }
+
+    public void completed(int groupFiles) {
+        files.add(groupFiles);
+        long done = completed.incrementAndGet();
+        if (done % modulo == 0 || done == total) {
+            log.info("===");
+            log.info("=== Just passed processing " + done + "th out of " + total + " " + unit + " (" + String.format("%,3d", done * 100 / Math.max(1, total)) + "%), " + files.sum() + " files inspected === ");
+            log.info("===");
+        }
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFiles() {
+        return files.sum();
+    }
+}
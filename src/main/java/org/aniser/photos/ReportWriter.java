@@ -0,0 +1,141 @@
+package org.aniser.photos;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Streams every confirmed group to a report file as soon as it resolves, the matches of a group are written per original.
+ * A JSONL record is {@code {"size", "digest", "original", "duplicates": [...]}}, a CSV row is {@code size,digest,original,duplicate}
+ * for every single duplicate. Records go through a fixed buffer to the channel, a timer flushes it at least once a second even while
+ * no group resolves, so the report can be consumed while the run is still in progress.
+ */
+@Slf4j
+public class ReportWriter implements Closeable {
+
+    public enum Format {
+        JSONL, CSV;
+
+        static Format of(Path reportPath) {
+            return reportPath.getFileName().toString().toLowerCase().endsWith(".csv") ? CSV : JSONL;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    private final Path reportPath;
+    private final Format format;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(PhotoCompare.daemonThreads("report"));
+    private long lastFlush = System.currentTimeMillis();
+    private long records = 0;
+
+    public ReportWriter(Path reportPath) {
+        this(reportPath, Format.of(reportPath));
+    }
+
+    public ReportWriter(Path reportPath, Format format) {
+        this.reportPath = reportPath.toAbsolutePath();
+        this.format = format;
+        try {
+            Files.createDirectories(this.reportPath.getParent());
+            this.channel = FileChannel.open(this.reportPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            if (format == Format.CSV) {
+                put("size,digest,original,duplicate\n");
+            }
+        } catch (IOException e) {
+            flusher.shutdownNow();
+            throw new UncheckedIOException("Report '" + this.reportPath + "' couldn't be created!", e);
+        }
+        flusher.scheduleWithFixedDelay(this::flushIfDue, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void write(List<Match> group) {
+        Map<Path, List<Match>> byOriginal = group.stream()
+                .collect(Collectors.groupingBy(match -> match.getOriginal() == null ? Path.of("") : match.getOriginal(), LinkedHashMap::new, Collectors.toList()));
+        try {
+            for (List<Match> matches : byOriginal.values()) {
+                Match first = matches.get(0);
+                if (format == Format.JSONL) {
+                    put("{\"size\": " + first.getSize() + ", \"digest\": " + Json.string(first.getDigest()) + ", \"original\": " + Json.string(first.getOriginal())
+                            + ", \"duplicates\": [" + matches.stream().map(match -> Json.string(match.getPath())).collect(Collectors.joining(", ")) + "]}\n");
+                } else {
+                    for (Match match : matches) {
+                        put(match.getSize() + "," + csv(match.getDigest()) + "," + csv(match.getOriginal()) + "," + csv(match.getPath()) + "\n");
+                    }
+                }
+                records++;
+            }
+            if (System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL_MILLIS) {
+                flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Report '" + reportPath + "' couldn't be written!", e);
+        }
+    }
+
+    private synchronized void flushIfDue() {
+        if (!channel.isOpen() || buffer.position() == 0 || System.currentTimeMillis() - lastFlush < FLUSH_INTERVAL_MILLIS) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            log.warn("Report '" + reportPath + "' couldn't be flushed: " + e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flusher.shutdownNow();
+        try (FileChannel closing = channel) {
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Report '" + reportPath + "' couldn't be closed!", e);
+        }
+        log.info(records + " report records written to '" + reportPath + "'.");
+    }
+
+    private void put(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        lastFlush = System.currentTimeMillis();
+    }
+
+    private static String csv(Object value) {
+        return value == null ? "" : "\"" + value.toString().replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,172 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ArchiveDigestTest {
+
+    private static final String FIRST = "00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff";
+    private static final String SECOND = "ffeeddccbbaa99887766554433221100ffeeddccbbaa99887766554433221100";
+    private static final String THIRD = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+    @Test
+    @DisplayName("GIVEN a written archive digest SHOULD find the archived sizes and digests only")
+    public void testLookups(@TempDir Path root) {
+        Path digestPath = root.resolve("archive.digest");
+        ArchiveDigest.write(digestPath, List.of(Map.entry(5000L, SECOND), Map.entry(5000L, FIRST), Map.entry(7000L, FIRST), Map.entry(5000L, FIRST)), ArchiveDigest.DEFAULT_BLOOM_BITS_PER_ENTRY);
+
+        Assertions.assertTrue(ArchiveDigest.isArchiveDigest(digestPath));
+        Assertions.assertFalse(ArchiveDigest.isArchiveDigest(root));
+        try (ArchiveDigest archive = ArchiveDigest.open(digestPath)) {
+            // the same content archived twice is recorded once
+            Assertions.assertEquals(3, archive.size());
+            Assertions.assertTrue(archive.containsSize(5000));
+            Assertions.assertTrue(archive.containsSize(7000));
+            Assertions.assertFalse(archive.containsSize(6000));
+            Assertions.assertTrue(archive.contains(5000, FIRST));
+            Assertions.assertTrue(archive.contains(5000, SECOND));
+            Assertions.assertTrue(archive.contains(7000, FIRST));
+            Assertions.assertFalse(archive.contains(7000, SECOND));
+            Assertions.assertFalse(archive.contains(5000, THIRD));
+            Assertions.assertFalse(archive.contains(6000, FIRST));
+        }
+    }
+
+    @Test
+    @DisplayName("GIVEN a Bloom filter SHOULD never reject an archived digest and reject most of the others")
+    public void testBloomFilter(@TempDir Path root) {
+        List<Map.Entry<Long, String>> originals = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            originals.add(Map.entry(5000L + i, digest(i)));
+        }
+        Path digestPath = root.resolve("archive.digest");
+        ArchiveDigest.write(digestPath, originals, ArchiveDigest.DEFAULT_BLOOM_BITS_PER_ENTRY);
+
+        try (ArchiveDigest archive = ArchiveDigest.open(digestPath)) {
+            originals.forEach(original -> Assertions.assertTrue(archive.mightContain(ArchiveDigest.truncate(original.getValue()))));
+            long falsePositives = Stream.iterate(1000, i -> i + 1).limit(10_000)
+                    .filter(i -> archive.mightContain(ArchiveDigest.truncate(digest(i))))
+                    .count();
+            // about 1% at 10 bits per entry
+            Assertions.assertTrue(falsePositives < 500, falsePositives + " false positives");
+        }
+    }
+
+    @Test
+    @DisplayName("GIVEN many originals of the same size SHOULD find every one of them and none of the others")
+    public void testLookupsAmongEqualSizes(@TempDir Path root) {
+        List<Map.Entry<Long, String>> originals = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            originals.add(Map.entry(i % 3 == 0 ? 4000L : 5000L, digest(i)));
+        }
+        Path digestPath = root.resolve("archive.digest");
+        // without a Bloom filter every lookup reaches the records
+        ArchiveDigest.write(digestPath, originals, 0);
+
+        try (ArchiveDigest archive = ArchiveDigest.open(digestPath)) {
+            originals.forEach(original -> Assertions.assertTrue(archive.contains(original.getKey(), original.getValue())));
+            for (int i = 0; i < 1000; i++) {
+                Assertions.assertFalse(archive.contains(i % 3 == 0 ? 5000L : 4000L, digest(i)));
+                Assertions.assertFalse(archive.contains(5000L, digest(1000 + i)));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("GIVEN a truncated archive digest SHOULD refuse to open it")
+    public void testTruncatedDigestIsRefused(@TempDir Path root) throws IOException {
+        Path digestPath = root.resolve("archive.digest");
+        ArchiveDigest.write(digestPath, List.of(Map.entry(5000L, FIRST), Map.entry(7000L, SECOND)), 0);
+        byte[] bytes = Files.readAllBytes(digestPath);
+        Files.write(digestPath, Arrays.copyOf(bytes, bytes.length - 4));
+
+        Assertions.assertThrows(IllegalStateException.class, () -> ArchiveDigest.open(digestPath));
+    }
+
+    @Test
+    @DisplayName("GIVEN the digest of an unmounted original path SHOULD select the same duplicates and originals as the original path did")
+    public void testDigestStandsForOriginalPath(@TempDir Path root) throws IOException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path others = Files.createDirectories(root.resolve("others"));
+        int large = 3 * ContentHasher.SAMPLE_SIZE;
+        for (int i = 1; i <= 6; i++) {
+            PhotoCompareTest.write(originals.resolve("photo-" + i + ".jpg"), PhotoCompareTest.content(5000 + i, 0, (byte) 1));
+            PhotoCompareTest.write(others.resolve("copy-" + i + ".jpg"), PhotoCompareTest.content(5000 + i, 0, (byte) (i % 2)));
+            PhotoCompareTest.write(originals.resolve("raw-" + i + ".raw"), PhotoCompareTest.content(large + i, large / 2, (byte) 1));
+            PhotoCompareTest.write(others.resolve("raw-copy-" + i + ".raw"), PhotoCompareTest.content(large + i, large / 2, (byte) (i % 2)));
+        }
+        // no original of its size, it is never read
+        PhotoCompareTest.write(others.resolve("unrelated.jpg"), PhotoCompareTest.content(9000, 0, (byte) 1));
+
+        PhotoCompare photoCompare = new PhotoCompare();
+        List<Path> duplicates = photoCompare.filterDirectoryBWithFunction(originals, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.DUPLICATE);
+        List<Path> unique = photoCompare.filterDirectoryBWithFunction(originals, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.ORIGINALS);
+
+        Path digestPath = root.resolve("originals.digest");
+        new PhotoCompare().exportArchiveDigest(originals, digestPath, ArchiveDigest.DEFAULT_BLOOM_BITS_PER_ENTRY);
+        try (Stream<Path> files = Files.walk(originals)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+
+        PhotoCompare offline = new PhotoCompare();
+        List<Match> archivedDuplicates = offline.matchDirectoryBWithFunction(digestPath, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.DUPLICATE);
+        List<Path> archivedUnique = offline.filterDirectoryBWithFunction(digestPath, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.ORIGINALS);
+
+        Assertions.assertEquals(6, duplicates.size());
+        Assertions.assertEquals(sorted(duplicates), archivedDuplicates.stream().map(Match::getPath).collect(Collectors.toList()));
+        Assertions.assertTrue(archivedDuplicates.stream().allMatch(match -> match.getOriginal() == null && match.getDigest() != null));
+        Assertions.assertEquals(sorted(unique), archivedUnique);
+        Assertions.assertThrows(IllegalStateException.class, () -> offline.matchDirectoryBWithFunction(digestPath, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.NEAR_DUPLICATE));
+    }
+
+    @Test
+    @DisplayName("GIVEN copies of an archived original SHOULD delete them with their archived digest journaled and never link them")
+    public void testArchivedCopiesAreDeleted(@TempDir Path root) throws IOException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path others = Files.createDirectories(root.resolve("others"));
+        PhotoCompareTest.write(originals.resolve("photo.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Path copy = others.resolve("copy.jpg");
+        PhotoCompareTest.write(copy, PhotoCompareTest.content(5000, 0, (byte) 1));
+        Path digestPath = root.resolve("originals.digest");
+        new PhotoCompare().exportArchiveDigest(originals, digestPath, ArchiveDigest.DEFAULT_BLOOM_BITS_PER_ENTRY);
+
+        List<Match> matches = new PhotoCompare().matchDirectoryBWithFunction(digestPath, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.DUPLICATE);
+        Assertions.assertEquals(0, new DeletionPlanner(DeletionPlanner.Action.HARDLINK, List.of(others), root.resolve("hardlink.tsv")).execute(matches));
+        Assertions.assertTrue(Files.exists(copy));
+
+        Path journal = root.resolve("delete.tsv");
+        Assertions.assertEquals(1, new DeletionPlanner(DeletionPlanner.Action.DELETE, List.of(others), journal).execute(matches));
+        Assertions.assertFalse(Files.exists(copy));
+        Assertions.assertTrue(Files.readString(journal).contains(copy.toAbsolutePath() + "\t-\t" + matches.get(0).getDigest()));
+    }
+
+    private static List<Path> sorted(List<Path> paths) {
+        return paths.stream().sorted().collect(Collectors.toList());
+    }
+
+    private static String digest(int i) {
+        try {
+            return ContentHasher.toHex(MessageDigest.getInstance("SHA-256").digest(Integer.toString(i).getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
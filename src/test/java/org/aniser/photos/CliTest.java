@@ -0,0 +1,44 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CliTest {
+
+    @Test
+    @DisplayName("GIVEN the dedup command with flags SHOULD run without prompts and delete only when an action is given")
+    public void testDedupRunsHeadless(@TempDir Path root) throws IOException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path others = Files.createDirectories(root.resolve("others"));
+        Files.write(originals.resolve("a.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Path copy = Files.write(others.resolve("a.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        String catalog = "--catalog=" + root.resolve("digests.catalog");
+        String metrics = "--metrics=" + root.resolve("metrics.json");
+        Path report = root.resolve("report.jsonl");
+
+        Assertions.assertEquals(Cli.OK, Cli.run(new String[]{"dedup", originals.toString(), others.toString(), catalog, metrics, "--report=" + report}));
+        Assertions.assertTrue(Files.exists(copy));
+        Assertions.assertTrue(Files.readString(report, StandardCharsets.UTF_8).contains("\"duplicates\": [" + Json.string(copy) + "]"));
+        Assertions.assertNull(System.getProperty("snap.report"));
+
+        Assertions.assertEquals(Cli.OK, Cli.run(new String[]{"dedup", originals.toString(), others.toString(), catalog, metrics, "--verify",
+                "--action=DELETE", "--journal=" + root.resolve("journal.tsv")}));
+        Assertions.assertFalse(Files.exists(copy));
+    }
+
+    @Test
+    @DisplayName("GIVEN an unknown flag or too few paths SHOULD fail with the usage exit code")
+    public void testUsageErrors() {
+        Assertions.assertTrue(Cli.isCommand("dedup"));
+        Assertions.assertFalse(Cli.isCommand("/photos"));
+        Assertions.assertEquals(Cli.USAGE, Cli.run(new String[]{"dedup", "a", "b", "--actoin=DELETE"}));
+        Assertions.assertEquals(Cli.USAGE, Cli.run(new String[]{"dedup", "a"}));
+    }
+}
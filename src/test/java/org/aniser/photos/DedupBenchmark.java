@@ -0,0 +1,133 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Hot paths of the de-duplication on a {@link SyntheticPhotoTree}, the tree and the comparison are set up once per trial.
+ * Run with {@code mvn -Pbenchmark verify -Dbenchmark=DedupBenchmark}, a single size with {@code -Dbenchmark="DedupBenchmark -p files=10000"}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DedupBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+
+        @Param({"10000", "100000", "1000000"})
+        private int files;
+
+        private Path root;
+        private SyntheticPhotoTree.Layout layout;
+        private PhotoCompare photoCompare;
+        private PhotoCompare spillingPhotoCompare;
+
+        @Setup(Level.Trial)
+        public void generateTree() throws IOException {
+            root = Files.createTempDirectory("dedup-benchmark");
+            layout = SyntheticPhotoTree.builder()
+                    .files(files)
+                    .depth(4)
+                    .directoriesPerLevel(16)
+                    .minSize(256)
+                    .maxSize(16 * 1024)
+                    .build()
+                    .generate(root);
+            photoCompare = new PhotoCompare();
+            photoCompare.setFullCoverage(true);
+            spillingPhotoCompare = new PhotoCompare();
+            spillingPhotoCompare.setCatalogEntriesInMemory(files / 8);
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteTree() {
+            photoCompare.close();
+            spillingPhotoCompare.close();
+            SyntheticPhotoTree.delete(root);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ComparedFiles {
+
+        // below, at and many times the size of the buffers the channels are read through
+        @Param({"16384", "1048576", "67108864"})
+        private int size;
+
+        private Path directory;
+        private Path original;
+        private Path copy;
+
+        @Setup(Level.Trial)
+        public void createFiles() throws IOException {
+            byte[] content = new byte[size];
+            new Random(size).nextBytes(content);
+            directory = Files.createTempDirectory("dedup-benchmark");
+            original = Files.write(directory.resolve("original.jpg"), content);
+            copy = Files.write(directory.resolve("copy.jpg"), content);
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteFiles() {
+            SyntheticPhotoTree.delete(directory);
+        }
+    }
+
+    @Benchmark
+    public List<FileEntry> getFilesRecursive(Tree tree) {
+        return tree.photoCompare.getFilesRecursive(tree.layout.getOriginals(), List.of(tree.layout.getOthers()));
+    }
+
+    // the trees are listed straight into the catalog, the grouping includes the listing
+    @Benchmark
+    public List<FileCatalog.Group> sizeGrouping(Tree tree) {
+        return tree.photoCompare.getSuggestedFileGroups(tree.layout.getOriginals(), List.of(tree.layout.getOthers()));
+    }
+
+    @Benchmark
+    public List<FileCatalog.Group> sizeGroupingSpilled(Tree tree) {
+        return tree.spillingPhotoCompare.getSuggestedFileGroups(tree.layout.getOriginals(), List.of(tree.layout.getOthers()));
+    }
+
+    // a single comparison is far too short for a single shot
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean fileAreEqual(ComparedFiles comparedFiles) {
+        return PhotoCompare.fileAreEqual(comparedFiles.original, comparedFiles.copy);
+    }
+
+    @Benchmark
+    public List<Path> filterDirectoryBWithFunction(Tree tree) {
+        return tree.photoCompare.filterDirectoryBWithFunction(tree.layout.getOriginals(), new ArrayList<>(List.of(tree.layout.getOthers())), PhotoCompare.OPERATIONS.DUPLICATE);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DedupBenchmark.class.getSimpleName()).jvmArgsAppend("-Dlogback.configurationFile=logback-benchmark.xml").build()).run();
+    }
+}
@@ -0,0 +1,62 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class DedupMetricsTest {
+
+    @Test
+    @DisplayName("GIVEN a finished run SHOULD publish phase timers and file counters and write them to the summary")
+    public void testRunIsMeasured(@TempDir Path root) throws IOException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path others = Files.createDirectories(root.resolve("others"));
+        Files.write(originals.resolve("a.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Files.write(others.resolve("a.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Files.write(others.resolve("b.jpg"), PhotoCompareTest.content(5000, 0, (byte) 2));
+
+        SimpleMeterRegistry published = new SimpleMeterRegistry();
+        PhotoCompare photoCompare = new PhotoCompare();
+        photoCompare.setMetrics(new DedupMetrics(published));
+        photoCompare.matchDirectoryBWithFunction(originals, List.of(others), PhotoCompare.OPERATIONS.DUPLICATE);
+
+        Assertions.assertEquals(2, published.get("snap.phase").tag("phase", "walk").timer().count());
+        Assertions.assertEquals(1, published.get("snap.phase").tag("phase", "confirmation").timer().count());
+        Assertions.assertEquals(1, published.get("snap.groups.resolved").counter().count());
+        Assertions.assertEquals(2, published.get("snap.files").tag("side", "other").counter().count());
+
+        Path summary = root.resolve("metrics.json");
+        photoCompare.getMetrics().writeSummary(summary);
+        String json = Files.readString(summary, StandardCharsets.UTF_8);
+        Assertions.assertTrue(json.contains("\"name\": \"snap.phase\", \"tags\": {\"phase\": \"grouping\"}"));
+        Assertions.assertTrue(json.contains("\"name\": \"snap.files\", \"tags\": {\"side\": \"original\"}, \"measurements\": {\"count\": 1"));
+    }
+
+    @Test
+    @DisplayName("GIVEN a second run SHOULD count the bytes read by that run only")
+    public void testRunsAreMeasuredApart(@TempDir Path root) throws IOException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path others = Files.createDirectories(root.resolve("others"));
+        Files.write(originals.resolve("a.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Files.write(others.resolve("a.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+
+        PhotoCompare photoCompare = new PhotoCompare();
+        photoCompare.setMetrics(new DedupMetrics(new SimpleMeterRegistry()));
+        photoCompare.matchDirectoryBWithFunction(originals, List.of(others), PhotoCompare.OPERATIONS.DUPLICATE);
+        SimpleMeterRegistry second = new SimpleMeterRegistry();
+        photoCompare.setMetrics(new DedupMetrics(second));
+
+        Assertions.assertEquals(0, second.get("snap.bytes.read").functionCounter().count());
+        photoCompare.matchDirectoryBWithFunction(originals, List.of(others), PhotoCompare.OPERATIONS.DUPLICATE);
+        Assertions.assertEquals(2 * 5000, second.get("snap.bytes.read").functionCounter().count());
+    }
+}
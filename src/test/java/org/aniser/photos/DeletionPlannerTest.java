@@ -0,0 +1,90 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DeletionPlannerTest {
+
+    @Test
+    @DisplayName("GIVEN duplicates filling whole directories SHOULD delete them, prune the emptied directories up to the root and roll it all back")
+    public void testDeleteAndPruneIsRolledBack(@TempDir Path root) throws IOException {
+        Path original = Files.write(Files.createDirectories(root.resolve("originals")).resolve("photo.jpg"), new byte[]{1, 2, 3});
+        Path others = Files.createDirectories(root.resolve("others"));
+        Path nested = Files.write(Files.createDirectories(others.resolve("a/b")).resolve("copy.jpg"), new byte[]{1, 2, 3});
+        Path sibling = Files.write(Files.createDirectories(others.resolve("c")).resolve("copy.jpg"), new byte[]{1, 2, 3});
+        Path kept = Files.write(others.resolve("c/kept.jpg"), new byte[]{4});
+        Path journal = root.resolve("journal.tsv");
+
+        int done = new DeletionPlanner(DeletionPlanner.Action.DELETE, List.of(others), journal)
+                .execute(List.of(new Match(nested, original, 3, null), new Match(sibling, original, 3, null)));
+
+        Assertions.assertEquals(2, done);
+        Assertions.assertFalse(Files.exists(others.resolve("a")));
+        Assertions.assertFalse(Files.exists(sibling));
+        Assertions.assertTrue(Files.exists(kept));
+        Assertions.assertTrue(Files.isDirectory(others));
+
+        DeletionPlanner.rollback(journal);
+        Assertions.assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(nested));
+        Assertions.assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(sibling));
+    }
+
+    @Test
+    @DisplayName("GIVEN a duplicate SHOULD replace it by a hardlink to its original keeping the layout")
+    public void testHardlinkReplacesDuplicate(@TempDir Path root) throws IOException {
+        Path original = Files.write(Files.createDirectories(root.resolve("originals")).resolve("photo.jpg"), new byte[]{1, 2, 3});
+        Path others = Files.createDirectories(root.resolve("others"));
+        Path copy = Files.write(Files.createDirectories(others.resolve("a")).resolve("copy.jpg"), new byte[]{1, 2, 3});
+
+        int done = new DeletionPlanner(DeletionPlanner.Action.HARDLINK, List.of(others), root.resolve("journal.tsv"))
+                .execute(List.of(new Match(copy, original, 3, null), new Match(others.resolve("a/no-original.jpg"), null, 3, null)));
+
+        Assertions.assertEquals(1, done);
+        Assertions.assertTrue(Files.isSameFile(original, copy));
+    }
+
+    @Test
+    @DisplayName("GIVEN a file matched to itself SHOULD leave it untouched")
+    public void testSelfMatchIsRefused(@TempDir Path root) throws IOException {
+        Path others = Files.createDirectories(root.resolve("others"));
+        Path file = Files.write(others.resolve("photo.jpg"), new byte[]{1, 2, 3});
+
+        int done = new DeletionPlanner(DeletionPlanner.Action.DELETE, List.of(others), root.resolve("journal.tsv"))
+                .execute(List.of(new Match(file, others.resolve("./photo.jpg"), 3, null)));
+
+        Assertions.assertEquals(0, done);
+        Assertions.assertTrue(Files.exists(file));
+    }
+
+    @Test
+    @DisplayName("GIVEN a file without any original SHOULD delete it and journal its content digest")
+    public void testFileWithoutOriginalIsDeletedWithItsDigest(@TempDir Path root) throws IOException {
+        Path others = Files.createDirectories(root.resolve("others"));
+        Path unique = Files.write(Files.createDirectories(others.resolve("a")).resolve("unique.jpg"), new byte[]{1, 2, 3});
+        Path archived = Files.write(others.resolve("archived.jpg"), new byte[]{4, 5, 6});
+        Path journal = root.resolve("journal.tsv");
+        String uniqueDigest = new ContentHasher().fullDigest(unique);
+
+        int done = new DeletionPlanner(DeletionPlanner.Action.DELETE, List.of(others), journal)
+                .execute(List.of(Match.unmatched(unique, 3), new Match(archived, null, 3, "archived-digest")));
+
+        Assertions.assertEquals(2, done);
+        Assertions.assertFalse(Files.exists(others.resolve("a")));
+        Assertions.assertFalse(Files.exists(archived));
+        List<String> lines = Files.readAllLines(journal);
+        Assertions.assertTrue(lines.contains("DELETE\tOK\t" + unique.toAbsolutePath() + "\t-\t" + uniqueDigest), lines.toString());
+        Assertions.assertTrue(lines.contains("DELETE\tOK\t" + archived.toAbsolutePath() + "\t-\tarchived-digest"), lines.toString());
+
+        // nothing to restore them from, the rollback leaves them out
+        Assertions.assertEquals(1, DeletionPlanner.rollback(journal));
+        Assertions.assertFalse(Files.exists(unique));
+        Assertions.assertTrue(Files.isDirectory(others.resolve("a")));
+    }
+}
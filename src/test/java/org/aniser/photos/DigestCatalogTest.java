@@ -0,0 +1,99 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DigestCatalogTest {
+
+    @Test
+    @DisplayName("GIVEN an unchanged file SHOULD reuse its digests from the catalog of a previous run")
+    public void testDigestsAreReusedAcrossRuns(@TempDir Path root) throws IOException {
+        Path catalogPath = root.resolve("catalog/digests.catalog");
+        Path photo = Files.write(root.resolve("photo.jpg"), new byte[]{1, 2, 3});
+
+        String partialDigest;
+        String fullDigest;
+        try (DigestCatalog catalog = DigestCatalog.open(catalogPath)) {
+            partialDigest = catalog.partialDigest(photo);
+            fullDigest = catalog.fullDigest(photo);
+            catalog.flush();
+            Assertions.assertEquals(0, catalog.getHits());
+            Assertions.assertEquals(2, catalog.getMisses());
+        }
+
+        try (DigestCatalog catalog = DigestCatalog.open(catalogPath)) {
+            Assertions.assertEquals(partialDigest, catalog.partialDigest(photo));
+            Assertions.assertEquals(fullDigest, catalog.fullDigest(photo));
+            Assertions.assertEquals(2, catalog.getHits());
+            Assertions.assertEquals(0, catalog.getMisses());
+        }
+    }
+
+    @Test
+    @DisplayName("GIVEN a listed file SHOULD look its digest up by the attributes of the listing without another stat")
+    public void testListedFileIsLookedUpByItsEntry(@TempDir Path root) throws IOException {
+        Path catalogPath = root.resolve("digests.catalog");
+        Path photo = Files.write(root.resolve("photo.jpg"), new byte[]{1, 2, 3});
+        FileEntry listed = FileEntry.of(photo, Files.readAttributes(photo, BasicFileAttributes.class));
+
+        try (DigestCatalog catalog = DigestCatalog.open(catalogPath)) {
+            String fullDigest = catalog.fullDigest(listed);
+            Files.delete(photo);
+
+            // a stat of the deleted file would fail the lookup
+            Assertions.assertEquals(fullDigest, catalog.fullDigest(listed));
+            Assertions.assertEquals(1, catalog.getHits());
+            Assertions.assertEquals(1, catalog.getMisses());
+        }
+    }
+
+    @Test
+    @DisplayName("GIVEN a file modified since the last run SHOULD compute its digest again")
+    public void testModifiedFileIsHashedAgain(@TempDir Path root) throws IOException {
+        Path catalogPath = root.resolve("digests.catalog");
+        Path photo = Files.write(root.resolve("photo.jpg"), new byte[]{1, 2, 3});
+
+        String fullDigest;
+        try (DigestCatalog catalog = DigestCatalog.open(catalogPath)) {
+            fullDigest = catalog.fullDigest(photo);
+            catalog.flush();
+        }
+
+        Files.write(photo, new byte[]{3, 2, 1});
+        Files.setLastModifiedTime(photo, FileTime.fromMillis(Files.getLastModifiedTime(photo).toMillis() + 2000));
+
+        try (DigestCatalog catalog = DigestCatalog.open(catalogPath)) {
+            Assertions.assertNotEquals(fullDigest, catalog.fullDigest(photo));
+            Assertions.assertEquals(0, catalog.getHits());
+        }
+    }
+
+    @Test
+    @DisplayName("GIVEN a file that is no image SHOULD remember it as such, a file that couldn't be read SHOULD be tried again")
+    public void testOnlyGenuineNonImagesAreCached(@TempDir Path root) throws IOException {
+        Path text = Files.writeString(root.resolve("notes.jpg"), "no image");
+        // a directory stands for a file whose read fails
+        Path unreadable = Files.createDirectories(root.resolve("unreadable.jpg"));
+
+        Assertions.assertThrows(IOException.class, () -> PerceptualHash.decode(unreadable));
+        try (DigestCatalog catalog = DigestCatalog.open(root.resolve("digests.catalog"))) {
+            Assertions.assertTrue(catalog.perceptualHash(text).isEmpty());
+            Assertions.assertTrue(catalog.perceptualHash(text).isEmpty());
+            Assertions.assertEquals(1, catalog.getHits());
+            Assertions.assertEquals(1, catalog.getMisses());
+
+            Assertions.assertTrue(catalog.perceptualHash(unreadable).isEmpty());
+            Assertions.assertTrue(catalog.perceptualHash(unreadable).isEmpty());
+            Assertions.assertEquals(1, catalog.getHits());
+            Assertions.assertEquals(3, catalog.getMisses());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DuplicateClustererTest {
+
+    private static final int LARGE = 3 * ContentHasher.SAMPLE_SIZE;
+
+    @Test
+    @DisplayName("GIVEN copies within and across several roots SHOULD keep the copy of the root of the highest priority")
+    public void testClustersAcrossAllRoots(@TempDir Path root) throws IOException {
+        Path first = Files.createDirectories(root.resolve("first"));
+        Path second = Files.createDirectories(root.resolve("second"));
+        Path third = Files.createDirectories(root.resolve("third"));
+        Path x = Files.write(second.resolve("x.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Path xCopy = Files.write(third.resolve("x.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Path xCopyAgain = Files.write(Files.createDirectories(third.resolve("again")).resolve("x.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Path y = Files.write(first.resolve("y.raw"), PhotoCompareTest.content(LARGE, LARGE - 1, (byte) 2));
+        Path yCopy = Files.write(third.resolve("y.raw"), PhotoCompareTest.content(LARGE, LARGE - 1, (byte) 2));
+        // the same sample, a different tail
+        Files.write(second.resolve("y-edited.raw"), PhotoCompareTest.content(LARGE, LARGE - 1, (byte) 3));
+        Files.write(second.resolve("unique.jpg"), PhotoCompareTest.content(5000, 0, (byte) 4));
+
+        PhotoCompare photoCompare = new PhotoCompare();
+        List<Match> copies = photoCompare.matchDirectoryBWithFunction(first, new ArrayList<>(List.of(second, third)), PhotoCompare.OPERATIONS.CLUSTER);
+
+        Map<Path, Path> survivors = copies.stream().collect(Collectors.toMap(Match::getPath, Match::getOriginal));
+        Assertions.assertEquals(Map.of(xCopy, x, xCopyAgain, x, yCopy, y), survivors);
+        Assertions.assertEquals(List.of(xCopyAgain, xCopy, yCopy), copies.stream().map(Match::getPath).collect(Collectors.toList()));
+    }
+
+    @Test
+    @DisplayName("GIVEN copies of one root only SHOULD keep the oldest copy")
+    public void testOldestCopySurvivesWithinRoot(@TempDir Path root) throws IOException {
+        Path newer = Files.write(root.resolve("a.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Path older = Files.write(root.resolve("b.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Files.setLastModifiedTime(older, FileTime.fromMillis(Files.getLastModifiedTime(newer).toMillis() - 60_000));
+
+        List<Match> copies = new DuplicateClusterer(new ContentHasher(), 2, true)
+                .cluster(List.of(new FileWalker(2).walk(root, List.of())), Integer.MAX_VALUE, resolved -> {
+                });
+
+        Assertions.assertEquals(List.of(new Match(newer, older, 5000, copies.get(0).getDigest())), copies);
+    }
+
+    @Test
+    @DisplayName("GIVEN a root listed twice or within another root SHOULD refuse to cluster")
+    public void testOverlappingRootsAreRefused(@TempDir Path root) throws IOException {
+        Path first = Files.createDirectories(root.resolve("first"));
+        Files.write(first.resolve("a.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+
+        PhotoCompare photoCompare = new PhotoCompare();
+        Assertions.assertThrows(IllegalStateException.class, () -> photoCompare.matchDirectoryBWithFunction(first, new ArrayList<>(List.of(root.resolve("first/../first"))), PhotoCompare.OPERATIONS.CLUSTER));
+        Assertions.assertThrows(IllegalStateException.class, () -> photoCompare.matchDirectoryBWithFunction(root, new ArrayList<>(List.of(first)), PhotoCompare.OPERATIONS.CLUSTER));
+    }
+
+    @Test
+    @DisplayName("GIVEN a hardlink of a file SHOULD not report it as a copy of the file")
+    public void testHardlinkIsNoCopy(@TempDir Path root) throws IOException {
+        Path file = Files.write(root.resolve("a.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Files.createLink(root.resolve("b.jpg"), file);
+
+        List<Match> copies = new DuplicateClusterer(new ContentHasher(), 2, false)
+                .cluster(List.of(new FileWalker(2).walk(root, List.of())), Integer.MAX_VALUE, resolved -> {
+                });
+
+        Assertions.assertEquals(List.of(), copies);
+    }
+}
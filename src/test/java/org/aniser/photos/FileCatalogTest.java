@@ -0,0 +1,56 @@
+package org.aniser.photos;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class FileCatalogTest {
+
+    private static final List<FileEntry> FILES = List.of(
+            new FileEntry(Path.of("/others/a/one.jpg"), 30, 1, null),
+            new FileEntry(Path.of("/others/a/two.jpg"), 10, 2, "(dev=803,ino=2)"),
+            new FileEntry(Path.of("/others/b/three.jpg"), 20, 3, null),
+            new FileEntry(Path.of("/others/b/four.jpg"), 10, 4, null),
+            new FileEntry(Path.of("/originals/a/one.jpg"), 30, 5, null),
+            new FileEntry(Path.of("/originals/b/two.jpg"), 10, 6, "(dev=811,ino=6)"),
+            new FileEntry(Path.of("/originals/b/unique.jpg"), 40, 7, null));
+
+    @Test
+    @DisplayName("GIVEN entries of several roots SHOULD group them by size keeping the order they were added in")
+    public void testGroupsBySize() {
+        List<FileCatalog.Group> groups = groups(Integer.MAX_VALUE);
+
+        Assertions.assertEquals(List.of(10L, 30L), groups.stream().map(FileCatalog.Group::getSize).collect(Collectors.toList()));
+        Assertions.assertEquals(List.of(Path.of("/others/a/two.jpg"), Path.of("/others/b/four.jpg"), Path.of("/originals/b/two.jpg")), groups.get(0).getPaths());
+        Assertions.assertArrayEquals(new int[]{1, 1, 0}, groups.get(0).getRoots());
+        Assertions.assertArrayEquals(new long[]{2, 4, 6}, groups.get(0).getLastModified());
+        Assertions.assertArrayEquals(new Object[]{"(dev=803,ino=2)", null, "(dev=811,ino=6)"}, groups.get(0).getFileKeys());
+        Assertions.assertEquals(FILES.get(5), groups.get(0).entry(2));
+        Assertions.assertTrue(groups.get(1).containsRoot(0));
+        Assertions.assertTrue(groups.get(1).containsOtherRootThan(0));
+    }
+
+    @Test
+    @DisplayName("GIVEN more entries than fit in memory SHOULD spill them and stream the very same groups")
+    public void testSpilledGroupsEqualInMemoryGroups() {
+        List<FileCatalog.Group> inMemory = groups(Integer.MAX_VALUE);
+        for (int maxEntries = 1; maxEntries <= FILES.size(); maxEntries++) {
+            Assertions.assertEquals(inMemory, groups(maxEntries), "at most " + maxEntries + " entries in memory");
+        }
+    }
+
+    private static List<FileCatalog.Group> groups(int maxEntriesInMemory) {
+        List<FileCatalog.Group> groups = new ArrayList<>();
+        try (FileCatalog catalog = new FileCatalog(maxEntriesInMemory)) {
+            FILES.forEach(file -> catalog.add(file.getPath().startsWith("/originals") ? 0 : 1, file));
+            Assertions.assertEquals(FILES.size(), catalog.size());
+            catalog.forEachGroup(groups::add);
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,36 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileChannelsTest {
+
+    private static final int SIZE = 2 * FileChannels.BUFFER_SIZE + 17;
+
+    @Test
+    @DisplayName("GIVEN files spanning several buffers SHOULD find them equal only when every chunk matches")
+    public void testContentEqualsComparesEveryChunk(@TempDir Path root) throws IOException {
+        Path original = Files.write(root.resolve("original.raw"), PhotoCompareTest.content(SIZE, SIZE - 1, (byte) 1));
+        Path copy = Files.write(root.resolve("copy.raw"), PhotoCompareTest.content(SIZE, SIZE - 1, (byte) 1));
+        Path differentTail = Files.write(root.resolve("different.raw"), PhotoCompareTest.content(SIZE, SIZE - 1, (byte) 2));
+        Path shorter = Files.write(root.resolve("shorter.raw"), PhotoCompareTest.content(SIZE - 1, 0, (byte) 7));
+
+        Assertions.assertTrue(FileChannels.contentEquals(original, copy));
+        Assertions.assertFalse(FileChannels.contentEquals(original, differentTail));
+        Assertions.assertFalse(FileChannels.contentEquals(original, shorter));
+    }
+
+    @Test
+    @DisplayName("GIVEN empty files SHOULD find them equal")
+    public void testContentEqualsOnEmptyFiles(@TempDir Path root) throws IOException {
+        Path first = Files.write(root.resolve("first"), new byte[0]);
+        Path second = Files.write(root.resolve("second"), new byte[0]);
+        Assertions.assertTrue(FileChannels.contentEquals(first, second));
+    }
+}
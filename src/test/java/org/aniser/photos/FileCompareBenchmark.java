@@ -0,0 +1,76 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the commons-io stream comparison against the channel based one on identical files,
+ * the worst case for both as every byte has to be read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileCompareBenchmark {
+
+    // a multi-MB JPEG and a RAW/video sized file
+    @Param({"4194304", "67108864"})
+    private int size;
+
+    private Path directory;
+    private Path original;
+    private Path copy;
+
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        directory = Files.createTempDirectory("file-compare-benchmark");
+        original = Files.write(directory.resolve("original.raw"), content);
+        copy = Files.write(directory.resolve("copy.raw"), content);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.delete(original);
+        Files.delete(copy);
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public boolean commonsIoContentEquals() throws IOException {
+        return FileUtils.contentEquals(original.toFile(), copy.toFile());
+    }
+
+    @Benchmark
+    public boolean fileChannelsContentEquals() throws IOException {
+        return FileChannels.contentEquals(original, copy);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FileCompareBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,57 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileWalkerTest {
+
+    @Test
+    @DisplayName("GIVEN a nested tree SHOULD list all regular files sorted with their sizes except the skipped paths")
+    public void testWalkListsNestedFilesAndHonoursSkipPaths(@TempDir Path root) throws IOException {
+        Path skipped = Files.createDirectories(root.resolve("b/skipped"));
+        Files.write(skipped.resolve("ignored.jpg"), new byte[10]);
+        Files.write(Files.createDirectories(root.resolve("b/c/d")).resolve("deep.jpg"), new byte[3]);
+        Files.write(Files.createDirectories(root.resolve("a")).resolve("first.jpg"), new byte[1]);
+        Files.write(root.resolve("top.jpg"), new byte[2]);
+
+        List<FileEntry> files = new FileWalker(2).walk(root, List.of(skipped));
+
+        Assertions.assertEquals(List.of(root.resolve("a/first.jpg"), root.resolve("b/c/d/deep.jpg"), root.resolve("top.jpg")),
+                files.stream().map(FileEntry::getPath).collect(Collectors.toList()));
+        Assertions.assertEquals(List.of(1L, 3L, 2L), files.stream().map(FileEntry::getSize).collect(Collectors.toList()));
+    }
+
+    @Test
+    @DisplayName("GIVEN the root itself as a skip path SHOULD return no files")
+    public void testWalkSkipsRoot(@TempDir Path root) throws IOException {
+        Files.write(root.resolve("top.jpg"), new byte[2]);
+        Assertions.assertTrue(new FileWalker(2).walk(root, List.of(root)).isEmpty());
+    }
+
+    @Test
+    @DisplayName("GIVEN a consumer SHOULD pass it the very same files the listing holds")
+    public void testWalkStreamsFiles(@TempDir Path root) throws IOException {
+        for (int i = 0; i < 50; i++) {
+            Files.write(Files.createDirectories(root.resolve("d" + i % 7 + "/e" + i % 3)).resolve("photo-" + i + ".jpg"), new byte[i]);
+        }
+
+        try (FileWalker fileWalker = new FileWalker(4)) {
+            List<FileEntry> streamed = new ArrayList<>();
+            // not thread-safe, the walker calls it by a single listing at a time
+            fileWalker.walk(root, List.of(), streamed::add);
+            streamed.sort(Comparator.comparing(FileEntry::getPath));
+
+            Assertions.assertEquals(fileWalker.walk(root, List.of()), streamed);
+        }
+    }
+}
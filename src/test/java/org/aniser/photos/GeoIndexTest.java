@@ -0,0 +1,83 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class GeoIndexTest {
+
+    private static final List<PhotoMetadata> PHOTOS = List.of(
+            photo("prague-1.jpg", 50.0870, 14.4208),
+            photo("prague-2.jpg", 50.0875, 14.4210),
+            photo("prague-3.jpg", 50.0865, 14.4200),
+            photo("brno.jpg", 49.1951, 16.6068),
+            photo("fiji-west.jpg", -17.7, 179.99),
+            photo("fiji-east.jpg", -17.7, -179.99),
+            photo("unknown.jpg", Double.NaN, Double.NaN));
+
+    @Test
+    @DisplayName("GIVEN located photos SHOULD answer radius and box queries, crossing the antimeridian too")
+    public void testRadiusAndBoxQueries() {
+        GeoIndex geoIndex = new GeoIndex(PHOTOS, 0.05);
+
+        Assertions.assertEquals(6, geoIndex.size());
+        Assertions.assertEquals(Set.of("prague-1.jpg", "prague-2.jpg", "prague-3.jpg"), names(geoIndex, geoIndex.withinRadius(50.087, 14.42, 1)));
+        Assertions.assertEquals(Set.of("prague-1.jpg", "prague-2.jpg", "prague-3.jpg", "brno.jpg"), names(geoIndex, geoIndex.withinRadius(50.087, 14.42, 200)));
+        Assertions.assertEquals(Set.of("brno.jpg"), names(geoIndex, geoIndex.withinBox(49, 16, 50, 17)));
+        Assertions.assertEquals(Set.of("fiji-west.jpg", "fiji-east.jpg"), names(geoIndex, geoIndex.withinRadius(-17.7, 180, 5)));
+    }
+
+    @Test
+    @DisplayName("GIVEN photos taken at a few places SHOULD cluster the dense ones and export them")
+    public void testClusteringAndExport(@TempDir Path root) throws IOException {
+        GeoIndex geoIndex = new GeoIndex(PHOTOS, 0.05);
+        int[] clusters = geoIndex.cluster(1, 3);
+
+        Set<Integer> pragueClusters = Arrays.stream(geoIndex.withinRadius(50.087, 14.42, 1)).mapToObj(entry -> clusters[entry]).collect(Collectors.toSet());
+        Assertions.assertEquals(Set.of(0), pragueClusters);
+        Assertions.assertEquals(3, Arrays.stream(clusters).filter(cluster -> cluster == GeoIndex.NOISE).count());
+
+        Path places = root.resolve("places.csv");
+        geoIndex.export(clusters, places);
+        List<String> lines = Files.readAllLines(places);
+        Assertions.assertEquals(7, lines.size());
+        Assertions.assertTrue(lines.get(1).startsWith("0,"));
+        Assertions.assertTrue(lines.get(6).startsWith("-1,"));
+    }
+
+    @Test
+    @DisplayName("GIVEN thousands of photos taken at home and one nearby SHOULD put them all in a single place")
+    public void testDensePlaceIsSinglePlace() {
+        List<PhotoMetadata> photos = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            photos.add(photo("home-" + i + ".jpg", 50.0870 + (i % 50) * 0.00001, 14.4208 + (i / 50) * 0.00001));
+        }
+        // at the edge of the radius of the home photos
+        photos.add(photo("garden.jpg", 50.0870, 14.4208 + 0.0006 + 0.0125));
+        photos.add(photo("brno.jpg", 49.1951, 16.6068));
+        GeoIndex geoIndex = new GeoIndex(photos, 0.05);
+
+        int[] clusters = geoIndex.cluster(1, 5);
+
+        Assertions.assertEquals(3001, Arrays.stream(clusters).filter(cluster -> cluster == 0).count());
+        Assertions.assertEquals(1, Arrays.stream(clusters).filter(cluster -> cluster == GeoIndex.NOISE).count());
+    }
+
+    private static Set<String> names(GeoIndex geoIndex, int[] entries) {
+        return Arrays.stream(entries).mapToObj(entry -> geoIndex.getPath(entry).getFileName().toString()).collect(Collectors.toSet());
+    }
+
+    private static PhotoMetadata photo(String name, double latitude, double longitude) {
+        return new PhotoMetadata(Path.of(name), 1, 0, latitude, longitude, null, null, null, null, null);
+    }
+}
@@ -0,0 +1,73 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class InboxWatcherTest {
+
+    @Test
+    @DisplayName("GIVEN files arriving in a watched inbox SHOULD delete those having an original and keep the others")
+    public void testArrivingDuplicatesAreDeleted(@TempDir Path root) throws IOException, InterruptedException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path inbox = Files.createDirectories(root.resolve("inbox"));
+        Files.write(originals.resolve("first.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Files.write(originals.resolve("second.jpg"), PhotoCompareTest.content(7000, 0, (byte) 2));
+        Path waiting = Files.write(inbox.resolve("waiting.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+
+        try (InboxWatcher watcher = new InboxWatcher(new PhotoCompare(), originals, List.of(inbox), InboxWatcher.Policy.DELETE, root.resolve("journal.tsv"), 50)) {
+            Thread thread = new Thread(watcher::run);
+            thread.setDaemon(true);
+            thread.start();
+            awaitDeleted(waiting);
+
+            Path unique = Files.write(inbox.resolve("unique.jpg"), PhotoCompareTest.content(7000, 0, (byte) 3));
+            Path arrived = Files.write(Files.createDirectories(inbox.resolve("today")).resolve("arrived.jpg"), PhotoCompareTest.content(7000, 0, (byte) 2));
+            awaitDeleted(arrived);
+            Assertions.assertTrue(Files.exists(unique));
+            Assertions.assertTrue(Files.exists(originals.resolve("second.jpg")));
+        }
+    }
+
+    @Test
+    @DisplayName("GIVEN an original deleted after the start SHOULD still match the other originals of its size and flush the digests")
+    public void testDeletedOriginalIsSkipped(@TempDir Path root) throws IOException, InterruptedException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path inbox = Files.createDirectories(root.resolve("inbox"));
+        Path deleted = Files.write(originals.resolve("deleted.jpg"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Path kept = Files.write(originals.resolve("kept.jpg"), PhotoCompareTest.content(5000, 0, (byte) 2));
+        Path catalogPath = root.resolve("digests.catalog");
+
+        PhotoCompare photoCompare = new PhotoCompare();
+        try (DigestCatalog digestCatalog = DigestCatalog.open(catalogPath);
+             InboxWatcher watcher = new InboxWatcher(photoCompare, originals, List.of(inbox), InboxWatcher.Policy.DELETE, root.resolve("journal.tsv"), 50)) {
+            photoCompare.setContentHasher(digestCatalog);
+            Files.delete(deleted);
+            Path copy = Files.write(inbox.resolve("copy.jpg"), PhotoCompareTest.content(5000, 0, (byte) 2));
+            Assertions.assertEquals(kept, watcher.check(FileEntry.of(copy, Files.readAttributes(copy, BasicFileAttributes.class))).map(Match::getOriginal).orElse(null));
+
+            Thread thread = new Thread(watcher::run);
+            thread.setDaemon(true);
+            thread.start();
+            awaitDeleted(copy);
+            for (int attempt = 0; attempt < 200 && Files.size(catalogPath) == 0; attempt++) {
+                Thread.sleep(50);
+            }
+            Assertions.assertTrue(Files.readString(catalogPath).contains(kept.toAbsolutePath().toString()));
+        }
+    }
+
+    private static void awaitDeleted(Path path) throws InterruptedException {
+        for (int attempt = 0; attempt < 200 && Files.exists(path); attempt++) {
+            Thread.sleep(50);
+        }
+        Assertions.assertFalse(Files.exists(path), "'" + path + "' should have been deleted");
+    }
+}
@@ -0,0 +1,115 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class IoSchedulerTest {
+
+    @Test
+    @DisplayName("GIVEN reads queued on a device read one at a time SHOULD run them in the order of their inodes")
+    public void testQueuedReadsRunInInodeOrder(@TempDir Path root) throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            files.add(Files.write(root.resolve("photo-" + i + ".jpg"), new byte[]{(byte) i}));
+        }
+        Path blocking = Files.write(root.resolve("blocking.jpg"), new byte[]{0});
+        Collections.shuffle(files, new Random(42));
+
+        try (IoScheduler ioScheduler = new IoScheduler(1, 1)) {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            // occupies the only thread of the device until every other read is queued
+            CompletableFuture<Path> first = ioScheduler.submit(blocking, () -> {
+                started.countDown();
+                await(release);
+                return blocking;
+            });
+            started.await();
+            List<Path> readOrder = Collections.synchronizedList(new ArrayList<>());
+            List<CompletableFuture<Path>> reads = files.stream()
+                    .map(file -> ioScheduler.submit(file, () -> {
+                        readOrder.add(file);
+                        return file;
+                    }))
+                    .collect(Collectors.toList());
+            release.countDown();
+
+            Assertions.assertEquals(blocking, first.get());
+            Assertions.assertEquals(files, reads.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+            List<Path> byInode = new ArrayList<>(files);
+            byInode.sort(Comparator.comparing(IoSchedulerTest::inode));
+            Assertions.assertEquals(byInode, readOrder);
+        }
+    }
+
+    @Test
+    @DisplayName("GIVEN a failing read SHOULD complete its future exceptionally and keep serving the device")
+    public void testFailingReadIsReported(@TempDir Path root) throws IOException {
+        Path file = Files.write(root.resolve("photo.jpg"), new byte[]{1});
+        try (IoScheduler ioScheduler = new IoScheduler(1, 1)) {
+            CompletableFuture<String> failing = ioScheduler.submit(file, () -> {
+                throw new UncheckedIOException(new IOException("unreadable"));
+            });
+            Assertions.assertThrows(UncheckedIOException.class, () -> PhotoCompare.join(failing));
+            Assertions.assertEquals("read", ioScheduler.submit(file, () -> "read").join());
+        }
+    }
+
+    @Test
+    @DisplayName("GIVEN scheduled reads SHOULD find the same duplicates as reads on the confirming thread")
+    public void testScheduledDuplicatesAreUnchanged(@TempDir Path root) throws IOException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path others = Files.createDirectories(root.resolve("others"));
+        int large = 3 * ContentHasher.SAMPLE_SIZE;
+        for (int i = 1; i <= 10; i++) {
+            PhotoCompareTest.write(originals.resolve("photo-" + i + ".jpg"), PhotoCompareTest.content(5000 + i, 0, (byte) 1));
+            PhotoCompareTest.write(others.resolve("copy-" + i + ".jpg"), PhotoCompareTest.content(5000 + i, 0, (byte) (i % 2)));
+            PhotoCompareTest.write(originals.resolve("raw-" + i + ".raw"), PhotoCompareTest.content(large + i, large / 2, (byte) 1));
+            PhotoCompareTest.write(others.resolve("raw-copy-" + i + ".raw"), PhotoCompareTest.content(large + i, large / 2, (byte) (i % 2)));
+        }
+
+        PhotoCompare photoCompare = new PhotoCompare();
+        List<Path> unscheduled = photoCompare.filterDirectoryBWithFunction(originals, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.DUPLICATE);
+        try (IoScheduler ioScheduler = new IoScheduler(4, 1)) {
+            photoCompare.setIoScheduler(ioScheduler);
+            List<Path> scheduled = photoCompare.filterDirectoryBWithFunction(originals, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.DUPLICATE);
+
+            Assertions.assertEquals(10, unscheduled.size());
+            Assertions.assertEquals(unscheduled, scheduled);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String inode(Path path) {
+        try {
+            Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            // without inodes the reads keep the submission order
+            return fileKey == null ? "" : String.format("%20s", String.valueOf(fileKey).replaceAll(".*ino=(\\d+).*", "$1"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
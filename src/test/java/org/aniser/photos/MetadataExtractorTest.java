@@ -0,0 +1,72 @@
+package org.aniser.photos;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MetadataExtractorTest {
+
+    @Test
+    @DisplayName("GIVEN an unreadable file among photos SHOULD record its failure and still extract the others")
+    public void testFailuresAreRecordedAsResults(@TempDir Path root) throws IOException {
+        Path photos = Files.createDirectories(root.resolve("photos"));
+        Assertions.assertTrue(ImageIO.write(new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), "jpg", photos.resolve("a.jpg").toFile()));
+        Files.write(photos.resolve("b.txt"), List.of("no photo"));
+
+        List<PhotoMetadata> metadata;
+        try (MetadataExtractor extractor = new MetadataExtractor(null, 2)) {
+            metadata = extractor.extract(photos);
+        }
+
+        Assertions.assertEquals(2, metadata.size());
+        PhotoMetadata photo = metadata.get(0);
+        Assertions.assertFalse(photo.isFailed());
+        Assertions.assertEquals(40, photo.getWidth());
+        Assertions.assertEquals(30, photo.getHeight());
+        Assertions.assertTrue(photo.getGeoLocation().isEmpty());
+        Assertions.assertTrue(metadata.get(1).isFailed());
+    }
+
+    @Test
+    @DisplayName("GIVEN a catalog of a previous run SHOULD reuse the metadata of unchanged files")
+    public void testCatalogIsReusedAcrossRuns(@TempDir Path root) throws IOException {
+        Path photos = Files.createDirectories(root.resolve("photos"));
+        Assertions.assertTrue(ImageIO.write(new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), "jpg", photos.resolve("a.jpg").toFile()));
+        Path catalogPath = root.resolve("metadata.catalog");
+
+        List<PhotoMetadata> extracted;
+        try (MetadataCatalog catalog = MetadataCatalog.open(catalogPath); MetadataExtractor extractor = new MetadataExtractor(catalog, 2)) {
+            extracted = extractor.extract(photos);
+            Assertions.assertEquals(0, catalog.getHits());
+        }
+        try (MetadataCatalog catalog = MetadataCatalog.open(catalogPath); MetadataExtractor extractor = new MetadataExtractor(catalog, 2)) {
+            Assertions.assertEquals(extracted, extractor.extract(photos));
+            Assertions.assertEquals(1, catalog.getHits());
+        }
+    }
+
+    @Test
+    @DisplayName("GIVEN a file that couldn't be read SHOULD try it again next time and remember a file whose metadata couldn't be parsed")
+    public void testOnlyParseFailuresAreCached(@TempDir Path root) throws IOException {
+        Path text = Files.write(root.resolve("notes.jpg"), List.of("no photo"));
+        FileEntry parsed = new FileEntry(text, Files.size(text), Files.getLastModifiedTime(text).toMillis(), null);
+        FileEntry missing = new FileEntry(root.resolve("missing.jpg"), 5000, 1, null);
+
+        try (MetadataCatalog catalog = MetadataCatalog.open(root.resolve("metadata.catalog")); MetadataExtractor extractor = new MetadataExtractor(catalog, 1)) {
+            Assertions.assertTrue(extractor.extract(parsed).isFailed());
+            Assertions.assertTrue(extractor.extract(missing).isFailed());
+
+            Assertions.assertTrue(catalog.lookup(parsed).isPresent());
+            Assertions.assertTrue(catalog.lookup(missing).isEmpty());
+        }
+    }
+}
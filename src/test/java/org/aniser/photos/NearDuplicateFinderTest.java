@@ -0,0 +1,72 @@
+package org.aniser.photos;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class NearDuplicateFinderTest {
+
+    @Test
+    @DisplayName("GIVEN a resized and re-encoded copy of an original SHOULD report it as a near duplicate, a different image not")
+    public void testResizedCopyIsNearDuplicate(@TempDir Path root) throws IOException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path others = Files.createDirectories(root.resolve("others"));
+        write(image(512, 384, false), "png", originals.resolve("original.png"));
+        write(image(160, 120, false), "jpg", others.resolve("resized.jpg"));
+        write(image(512, 384, true), "png", others.resolve("different.png"));
+        Files.write(others.resolve("notes.txt"), List.of("not an image"));
+
+        List<Match> nearDuplicates = new NearDuplicateFinder(new ContentHasher(), PerceptualHash.DEFAULT_THRESHOLD, 2)
+                .find(entries(originals), entries(others));
+
+        Assertions.assertEquals(List.of(others.resolve("resized.jpg")), nearDuplicates.stream().map(Match::getPath).collect(Collectors.toList()));
+        Assertions.assertEquals(originals.resolve("original.png"), nearDuplicates.get(0).getOriginal());
+    }
+
+    @Test
+    @DisplayName("GIVEN indexed hashes SHOULD find exactly those within the Hamming threshold")
+    public void testBkTreeSearchesWithinThreshold() {
+        BkTree<String> tree = new BkTree<>();
+        tree.add(0b0000L, "zero");
+        tree.add(0b0001L, "one bit");
+        tree.add(0b0111L, "three bits");
+        tree.add(-1L, "all bits");
+
+        Assertions.assertEquals(List.of("one bit", "zero"), tree.search(0L, 1).stream().sorted().collect(Collectors.toList()));
+        Assertions.assertEquals(List.of("all bits"), tree.search(-1L, 3));
+        Assertions.assertEquals(4, tree.search(0L, 64).size());
+    }
+
+    private static BufferedImage image(int width, int height, boolean inverted) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                int value = (int) (255.0 * ((x * 3.0 / width + y * 2.0 / height) % 1.0));
+                image.setRGB(x, y, new Color(inverted ? 255 - value : value, value / 2, 128).getRGB());
+            }
+        }
+        return image;
+    }
+
+    private static void write(BufferedImage image, String format, Path path) throws IOException {
+        Assertions.assertTrue(ImageIO.write(image, format, path.toFile()));
+    }
+
+    private static List<FileEntry> entries(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().map(path -> new FileEntry(path, path.toFile().length(), 0, null)).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.aniser.photos;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PayloadFinderTest {
+
+    @Test
+    @DisplayName("GIVEN a JPEG with rewritten metadata segments SHOULD share the image data digest with the original, another image not")
+    public void testMetadataSegmentsAreIgnored(@TempDir Path root) throws IOException {
+        byte[] jpeg = jpeg(false);
+        Path original = Files.write(root.resolve("original.jpg"), jpeg);
+        Path retagged = Files.write(root.resolve("retagged.jpg"), withSegments(jpeg, segment(0xE1, "Exif\0\0 rewritten by a photo manager"), segment(0xFE, "a comment")));
+        Path different = Files.write(root.resolve("different.jpg"), jpeg(true));
+        Path text = Files.write(root.resolve("notes.txt"), "not an image".getBytes(StandardCharsets.UTF_8));
+
+        ContentHasher contentHasher = new ContentHasher();
+        Assertions.assertNotEquals(Files.size(original), Files.size(retagged));
+        Assertions.assertEquals(contentHasher.payloadDigest(original), contentHasher.payloadDigest(retagged));
+        Assertions.assertEquals(contentHasher.partialPayloadDigest(original), contentHasher.partialPayloadDigest(retagged));
+        Assertions.assertNotEquals(contentHasher.payloadDigest(original), contentHasher.payloadDigest(different));
+        Assertions.assertTrue(contentHasher.payloadDigest(text).isEmpty());
+        // truncated within the scan
+        Path truncated = Files.write(root.resolve("truncated.jpg"), Arrays.copyOf(jpeg, jpeg.length - 64));
+        Assertions.assertTrue(contentHasher.payloadDigest(truncated).isEmpty());
+    }
+
+    @Test
+    @DisplayName("GIVEN retagged JPEGs and byte-equal other files SHOULD match both to their originals")
+    public void testFindsRetaggedAndExactCopies(@TempDir Path root) throws IOException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path others = Files.createDirectories(root.resolve("others"));
+        byte[] jpeg = jpeg(false);
+        Files.write(originals.resolve("photo.jpg"), jpeg);
+        Files.write(originals.resolve("clip.mov"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Files.write(others.resolve("photo-retagged.jpg"), withSegments(jpeg, segment(0xE1, "Exif\0\0 new tags")));
+        Files.write(others.resolve("clip.mov"), PhotoCompareTest.content(5000, 0, (byte) 1));
+        Files.write(others.resolve("other.jpg"), jpeg(true));
+        // empty files and mac dot files are skipped as in every other mode
+        Files.write(originals.resolve("empty"), new byte[0]);
+        Files.write(others.resolve("empty"), new byte[0]);
+        Files.write(originals.resolve("._photo.jpg"), new byte[4096]);
+        Files.write(others.resolve("._clip.mov"), new byte[4096]);
+
+        PhotoCompare photoCompare = new PhotoCompare();
+        List<Match> matches = photoCompare.matchDirectoryBWithFunction(originals, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.PAYLOAD_DUPLICATE);
+
+        Assertions.assertEquals(List.of(others.resolve("clip.mov"), others.resolve("photo-retagged.jpg")), matches.stream().map(Match::getPath).collect(Collectors.toList()));
+        Assertions.assertEquals(List.of(originals.resolve("clip.mov"), originals.resolve("photo.jpg")), matches.stream().map(Match::getOriginal).collect(Collectors.toList()));
+    }
+
+    private static byte[] jpeg(boolean inverted) throws IOException {
+        BufferedImage image = new BufferedImage(256, 192, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                int value = (x * 7 + y * 13) % 256;
+                image.setRGB(x, y, new Color(inverted ? 255 - value : value, (x * y) % 256, 128).getRGB());
+            }
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", output);
+        return output.toByteArray();
+    }
+
+    private static byte[] segment(int marker, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] segment = new byte[bytes.length + 4];
+        segment[0] = (byte) 0xFF;
+        segment[1] = (byte) marker;
+        segment[2] = (byte) ((bytes.length + 2) >> 8);
+        segment[3] = (byte) (bytes.length + 2);
+        System.arraycopy(bytes, 0, segment, 4, bytes.length);
+        return segment;
+    }
+
+    /**
+     * Inserts the segments right after the start of image marker.
+     */
+    private static byte[] withSegments(byte[] jpeg, byte[]... segments) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(jpeg, 0, 2);
+        Arrays.stream(segments).forEach(segment -> output.write(segment, 0, segment.length));
+        output.write(jpeg, 2, jpeg.length - 2);
+        return output.toByteArray();
+    }
+}
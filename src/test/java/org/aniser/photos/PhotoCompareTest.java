@@ -1,31 +1,159 @@
 package org.aniser.photos;
 
+import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class PhotoCompareTest {
 
     @Test
-    @DisplayName("GIVEN the same path SHOULD ALWAYS return false")
-    public void testDuplicateWontReturnTrueOnSamePath() {
-        Path original = Path.of("a/b/c");
-        Assertions.assertFalse(PhotoCompare.OPERATIONS.DUPLICATE.apply(Set.of(original), original));
+    @DisplayName("GIVEN an operation SHOULD select the other files having an equal original unless it looks for originals")
+    public void testOperationsSelectByEqualOriginal() {
+        for (PhotoCompare.OPERATIONS operation : PhotoCompare.OPERATIONS.values()) {
+            boolean originals = operation == PhotoCompare.OPERATIONS.ORIGINALS;
+            Assertions.assertEquals(!originals, operation.selects(true), operation.name());
+            Assertions.assertEquals(originals, operation.selects(false), operation.name());
+        }
     }
 
     @Test
-    @DisplayName("GIVEN the same path SHOULD ALWAYS pass and returned an unchecked exception")
-    public void testDuplicateWontReturnTrueOnSubPath() {
+    @DisplayName("GIVEN the same path as original and other SHOULD ALWAYS return no match")
+    public void testDuplicateWontMatchSamePath(@TempDir Path root) throws IOException {
+        Path original = root.resolve("photo.jpg");
+        write(original, content(5000, 0, (byte) 1));
+        Path copy = root.resolve("copy.jpg");
+        write(copy, content(5000, 0, (byte) 1));
+        FileEntry originalFile = new FileEntry(original, 5000, 0, null);
+        FileEntry copyFile = new FileEntry(copy, 5000, 0, null);
+
+        Map<Path, Match> matched = new PhotoCompare().matchOthersByContent(5000, List.of(originalFile), List.of(originalFile, copyFile));
+
+        Assertions.assertEquals(Set.of(copy), matched.keySet());
+        Assertions.assertEquals(original, matched.get(copy).getOriginal());
+    }
+
+    @Test
+    @DisplayName("GIVEN missing files SHOULD ALWAYS fail with an unchecked exception")
+    public void testDuplicateOfMissingFilesFails() {
         String commonPath = "a/b/c/";
-        Path original = Path.of(commonPath + "d");
-        Path subpath = Path.of(commonPath + "/e");
+        FileEntry original = new FileEntry(Path.of(commonPath + "d"), 5000, 0, null);
+        FileEntry subpath = new FileEntry(Path.of(commonPath + "/e"), 5000, 0, null);
         Assertions.assertThrows(UncheckedIOException.class, () ->
-                PhotoCompare.OPERATIONS.DUPLICATE.apply(Set.of(original), subpath)
+                new PhotoCompare().matchOthersByContent(5000, List.of(original), List.of(subpath))
         );
     }
 
+    @Test
+    @DisplayName("GIVEN same-size files SHOULD report only the byte-identical ones as duplicates")
+    public void testDuplicateResolvesSameSizeGroupsByContent(@TempDir Path root) throws IOException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path others = Files.createDirectories(root.resolve("others"));
+
+        write(originals.resolve("small.jpg"), content(1_000, 0, (byte) 1));
+        write(others.resolve("small-copy.jpg"), content(1_000, 0, (byte) 1));
+        write(others.resolve("small-other.jpg"), content(1_000, 0, (byte) 2));
+
+        // larger than the sampled head and tail, differing only in the middle
+        int size = 3 * ContentHasher.SAMPLE_SIZE;
+        write(originals.resolve("large.raw"), content(size, size / 2, (byte) 1));
+        write(others.resolve("large-copy.raw"), content(size, size / 2, (byte) 1));
+        write(others.resolve("large-other.raw"), content(size, size / 2, (byte) 2));
+
+        PhotoCompare photoCompare = new PhotoCompare();
+        List<Path> duplicates = photoCompare.filterDirectoryBWithFunction(originals, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.DUPLICATE);
+        Assertions.assertEquals(Set.of(others.resolve("small-copy.jpg"), others.resolve("large-copy.raw")), Set.copyOf(duplicates));
+
+        photoCompare.setVerifyCollisions(true);
+        List<Path> unique = photoCompare.filterDirectoryBWithFunction(originals, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.ORIGINALS);
+        Assertions.assertEquals(Set.of(others.resolve("small-other.jpg"), others.resolve("large-other.raw")), Set.copyOf(unique));
+    }
+
+    @Test
+    @DisplayName("GIVEN many size groups SHOULD return the same ordered result whatever the concurrency is")
+    public void testConcurrentConfirmationIsDeterministic(@TempDir Path root) throws IOException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path others = Files.createDirectories(root.resolve("others"));
+        for (int i = 1; i <= 40; i++) {
+            write(originals.resolve("photo-" + i + ".jpg"), content(100 + i, 0, (byte) 1));
+            write(others.resolve("copy-" + i + ".jpg"), content(100 + i, 0, (byte) (i % 2)));
+        }
+
+        PhotoCompare photoCompare = new PhotoCompare();
+        photoCompare.setConcurrency(1);
+        List<Path> sequential = photoCompare.filterDirectoryBWithFunction(originals, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.DUPLICATE);
+        photoCompare.setConcurrency(8);
+        List<Path> concurrent = photoCompare.filterDirectoryBWithFunction(originals, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.DUPLICATE);
+
+        Assertions.assertEquals(20, sequential.size());
+        Assertions.assertEquals(sequential, concurrent);
+    }
+
+    @Test
+    @DisplayName("GIVEN an other path within the original path SHOULD take its files for others only")
+    public void testNestedOtherPathIsNoOriginal(@TempDir Path root) throws IOException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path inbox = Files.createDirectories(originals.resolve("inbox"));
+        write(originals.resolve("photo.jpg"), content(5000, 0, (byte) 1));
+        write(inbox.resolve("copy.jpg"), content(5000, 0, (byte) 1));
+        write(inbox.resolve("other.jpg"), content(5000, 0, (byte) 2));
+
+        PhotoCompare photoCompare = new PhotoCompare();
+        List<Match> duplicates = photoCompare.matchDirectoryBWithFunction(originals, new ArrayList<>(List.of(inbox)), PhotoCompare.OPERATIONS.DUPLICATE);
+
+        Assertions.assertEquals(1, duplicates.size());
+        Assertions.assertEquals(inbox.resolve("copy.jpg"), duplicates.get(0).getPath());
+        Assertions.assertEquals(originals.resolve("photo.jpg"), duplicates.get(0).getOriginal());
+    }
+
+    @Test
+    @DisplayName("GIVEN a checkpoint of an interrupted run SHOULD resume with the unconfirmed groups only and cover all of them")
+    public void testFullCoverageResumesFromCheckpoint(@TempDir Path root) throws IOException {
+        Path originals = Files.createDirectories(root.resolve("originals"));
+        Path others = Files.createDirectories(root.resolve("others"));
+        for (int i = 1; i <= 300; i++) {
+            write(originals.resolve("photo-" + i + ".jpg"), content(100 + i, 0, (byte) 1));
+            write(others.resolve("copy-" + i + ".jpg"), content(100 + i, 0, (byte) 1));
+        }
+        // group of 101 B files recorded as confirmed with nothing selected, it must not be confirmed again,
+        // the groups of 102, 103 and 104 B files were cut short by a crash and must be
+        Path checkpointPath = root.resolve("run.checkpoint");
+        Files.writeString(checkpointPath, String.join("\n", Checkpoint.FORMAT + " DUPLICATE " + originals.toAbsolutePath() + " " + others.toAbsolutePath(),
+                "101\t.", "102", "103\t" + others.resolve("copy-3.jpg") + "\t" + originals.resolve("photo-3.jpg"), "104\t.") + "\n105\t.");
+
+        PhotoCompare photoCompare = new PhotoCompare();
+        photoCompare.setFullCoverage(true);
+        photoCompare.setCheckpointPath(checkpointPath);
+        List<Path> duplicates = photoCompare.filterDirectoryBWithFunction(originals, new ArrayList<>(List.of(others)), PhotoCompare.OPERATIONS.DUPLICATE);
+
+        Assertions.assertEquals(298, duplicates.size());
+        Assertions.assertFalse(duplicates.contains(others.resolve("copy-1.jpg")));
+        Assertions.assertFalse(duplicates.contains(others.resolve("copy-4.jpg")));
+        Assertions.assertTrue(duplicates.contains(others.resolve("copy-2.jpg")));
+        Assertions.assertTrue(duplicates.contains(others.resolve("copy-3.jpg")));
+        Assertions.assertTrue(duplicates.contains(others.resolve("copy-5.jpg")));
+        Assertions.assertFalse(Files.exists(checkpointPath));
+    }
+
+    static byte[] content(int size, int markerPosition, byte marker) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) 7);
+        bytes[markerPosition] = marker;
+        return bytes;
+    }
+
+    static void write(Path path, byte[] bytes) throws IOException {
+        Files.write(path, bytes);
+    }
+
 }
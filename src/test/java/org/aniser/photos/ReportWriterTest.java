@@ -0,0 +1,64 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ReportWriterTest {
+
+    private static final List<Match> GROUP = List.of(
+            new Match(Path.of("/others/a.jpg"), Path.of("/originals/a.jpg"), 5000, "abc"),
+            new Match(Path.of("/others/\"quoted\".jpg"), Path.of("/originals/a.jpg"), 5000, "abc"),
+            new Match(Path.of("/others/b.jpg"), Path.of("/originals/b.jpg"), 5000, "def"));
+
+    @Test
+    @DisplayName("GIVEN a confirmed group SHOULD write a JSONL record per original listing its duplicates")
+    public void testJsonLinesPerOriginal(@TempDir Path root) throws IOException {
+        Path report = root.resolve("report.jsonl");
+        try (ReportWriter writer = new ReportWriter(report)) {
+            writer.write(GROUP);
+        }
+        Assertions.assertEquals(List.of(
+                "{\"size\": 5000, \"digest\": \"abc\", \"original\": \"/originals/a.jpg\", \"duplicates\": [\"/others/a.jpg\", \"/others/\\\"quoted\\\".jpg\"]}",
+                "{\"size\": 5000, \"digest\": \"def\", \"original\": \"/originals/b.jpg\", \"duplicates\": [\"/others/b.jpg\"]}"),
+                Files.readAllLines(report, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("GIVEN a confirmed group SHOULD write a quoted CSV row per duplicate")
+    public void testCsvRowPerDuplicate(@TempDir Path root) throws IOException {
+        Path report = root.resolve("report.csv");
+        try (ReportWriter writer = new ReportWriter(report)) {
+            writer.write(GROUP);
+            writer.write(List.of(Match.unmatched(Path.of("/others/c.jpg"), 10)));
+        }
+        Assertions.assertEquals(List.of(
+                "size,digest,original,duplicate",
+                "5000,\"abc\",\"/originals/a.jpg\",\"/others/a.jpg\"",
+                "5000,\"abc\",\"/originals/a.jpg\",\"/others/\"\"quoted\"\".jpg\"",
+                "5000,\"def\",\"/originals/b.jpg\",\"/others/b.jpg\"",
+                "10,,,\"/others/c.jpg\""),
+                Files.readAllLines(report, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("GIVEN a group written and no other resolving SHOULD flush it within a few seconds while the report is still open")
+    public void testIdleReportIsFlushed(@TempDir Path root) throws Exception {
+        Path report = root.resolve("report.jsonl");
+        try (ReportWriter writer = new ReportWriter(report)) {
+            writer.write(GROUP);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (Files.size(report) == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assertions.assertEquals(2, Files.readAllLines(report, StandardCharsets.UTF_8).size());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Deterministic generator of an originals tree and an others tree for benchmarks, the same settings always produce the same files.
+ * Other files are either copies of an original, same-size files differing in content from an original, or unique files.
+ */
+@Builder
+public class SyntheticPhotoTree {
+
+    @Builder.Default
+    private final long seed = 42;
+    // files in both trees together
+    @Builder.Default
+    private final int files = 1000;
+    @Builder.Default
+    private final double otherRatio = 0.5;
+    // share of other files being byte-identical copies of an original
+    @Builder.Default
+    private final double duplicateRatio = 0.3;
+    // share of other files having the size of an original but a different content
+    @Builder.Default
+    private final double collisionRatio = 0.1;
+    @Builder.Default
+    private final int depth = 3;
+    @Builder.Default
+    private final int directoriesPerLevel = 8;
+    // sizes are spread log-uniformly in between, as photo and video sizes are
+    @Builder.Default
+    private final int minSize = 1024;
+    @Builder.Default
+    private final int maxSize = 64 * 1024;
+
+    @Value
+    public static class Layout {
+        Path originals;
+        Path others;
+        int originalFiles;
+        int otherFiles;
+        int duplicates;
+        int collisions;
+        // every copy with its original
+        Map<Path, Path> duplicateOriginals;
+    }
+
+    public Layout generate(Path root) {
+        Random random = new Random(seed);
+        Path originals = root.resolve("originals");
+        Path others = root.resolve("others");
+
+        int otherFiles = (int) Math.round(files * otherRatio);
+        int originalFiles = Math.max(1, files - otherFiles);
+        List<Path> originalPaths = new ArrayList<>(originalFiles);
+        List<Integer> originalSizes = new ArrayList<>(originalFiles);
+        List<Long> originalSeeds = new ArrayList<>(originalFiles);
+        for (int i = 0; i < originalFiles; i++) {
+            int size = size(random);
+            long contentSeed = random.nextLong();
+            originalPaths.add(write(place(originals, random, "original-" + i), size, contentSeed));
+            originalSizes.add(size);
+            originalSeeds.add(contentSeed);
+        }
+
+        int duplicates = 0;
+        int collisions = 0;
+        Map<Path, Path> duplicateOriginals = new LinkedHashMap<>();
+        for (int i = 0; i < otherFiles; i++) {
+            double kind = random.nextDouble();
+            int original = random.nextInt(originalFiles);
+            Path path = place(others, random, "other-" + i);
+            if (kind < duplicateRatio) {
+                duplicateOriginals.put(write(path, originalSizes.get(original), originalSeeds.get(original)), originalPaths.get(original));
+                duplicates++;
+            } else if (kind < duplicateRatio + collisionRatio) {
+                write(path, originalSizes.get(original), random.nextLong());
+                collisions++;
+            } else {
+                write(path, size(random), random.nextLong());
+            }
+        }
+        return new Layout(originals, others, originalFiles, otherFiles, duplicates, collisions, duplicateOriginals);
+    }
+
+    public static void delete(Path root) {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int size(Random random) {
+        double logMin = Math.log(minSize);
+        double logMax = Math.log(Math.max(minSize, maxSize));
+        return (int) Math.round(Math.exp(logMin + random.nextDouble() * (logMax - logMin)));
+    }
+
+    private Path place(Path root, Random random, String name) {
+        Path directory = root;
+        int levels = random.nextInt(depth + 1);
+        for (int level = 0; level < levels; level++) {
+            directory = directory.resolve("d" + level + "-" + random.nextInt(directoriesPerLevel));
+        }
+        return directory.resolve(name + ".jpg");
+    }
+
+    private static Path write(Path path, int size, long contentSeed) {
+        byte[] content = new byte[size];
+        new Random(contentSeed).nextBytes(content);
+        try {
+            Files.createDirectories(path.getParent());
+            return Files.write(path, content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.aniser.photos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SyntheticPhotoTreeTest {
+
+    @Test
+    @DisplayName("GIVEN the same settings SHOULD generate the same tree whose copies are exactly the duplicates found")
+    public void testGeneratedTreeIsDeterministicAndMatchesDuplicates(@TempDir Path root) throws IOException {
+        SyntheticPhotoTree tree = SyntheticPhotoTree.builder().files(200).maxSize(4096).build();
+        SyntheticPhotoTree.Layout first = tree.generate(Files.createDirectories(root.resolve("first")));
+        SyntheticPhotoTree.Layout second = tree.generate(Files.createDirectories(root.resolve("second")));
+
+        Assertions.assertEquals(first.getDuplicates(), second.getDuplicates());
+        Assertions.assertEquals(first.getCollisions(), second.getCollisions());
+        Assertions.assertTrue(first.getDuplicates() > 0);
+        Assertions.assertTrue(first.getCollisions() > 0);
+
+        PhotoCompare photoCompare = new PhotoCompare();
+        photoCompare.setFullCoverage(true);
+        List<Path> duplicates = photoCompare.filterDirectoryBWithFunction(first.getOriginals(), new ArrayList<>(List.of(first.getOthers())), PhotoCompare.OPERATIONS.DUPLICATE);
+        Assertions.assertEquals(first.getDuplicateOriginals().keySet(), Set.copyOf(duplicates));
+    }
+}